@@ -0,0 +1,185 @@
+package uj.wmii.pwj.gvt;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs gvt commands against a repository of {@code versions} versions tracking {@code files} files of
+ * {@code fileSize} bytes each. Like the tests, the repository lives in the working directory and is
+ * removed after each trial. Add and commit create a version each, so they run once per iteration on a
+ * repository restored from a snapshot taken after the trial setup, and always measure the same size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GvtBenchmark {
+
+    private static final String FILE_PREFIX = "bench-";
+    private static final String NEW_FILE = FILE_PREFIX + "new.dat";
+
+    @Param({"10", "1000"})
+    public int versions;
+
+    @Param({"10", "500"})
+    public int files;
+
+    @Param({"1024", "1048576"})
+    public int fileSize;
+
+    private static class BenchmarkExitHandler extends ExitHandler {
+        @Override
+        void exitOperation(int code) {
+            if (code != 0) throw new IllegalStateException("Command failed with exit code " + code);
+        }
+    }
+
+    /**
+     * The snapshot restored, with a file not tracked yet.
+     */
+    @State(Scope.Thread)
+    public static class NewFile {
+        @Setup(Level.Iteration)
+        public void prepare(GvtBenchmark benchmark) throws IOException {
+            benchmark.restoreSnapshot();
+            benchmark.writeFile(NEW_FILE);
+        }
+    }
+
+    /**
+     * The snapshot restored, with a tracked file changed.
+     */
+    @State(Scope.Thread)
+    public static class ChangedFile {
+        @Setup(Level.Iteration)
+        public void prepare(GvtBenchmark benchmark) throws IOException {
+            benchmark.restoreSnapshot();
+            benchmark.writeFile(fileName(0));
+        }
+    }
+
+    private final Random random = new Random(42);
+    private PrintStream systemOut;
+    private Path snapshot;
+    private Gvt gvt;
+    private int checkouts;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        systemOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        gvt = new Gvt(new BenchmarkExitHandler());
+
+        gvt.mainInternal("init");
+        for (int i = 0; i < files; i++) writeFile(fileName(i));
+        gvt.mainInternal("add", FILE_PREFIX + "*");
+        for (int v = 2; v < versions; v++) {
+            String name = fileName(v % files);
+            writeFile(name);
+            gvt.mainInternal("commit", name);
+        }
+
+        snapshot = Files.createTempDirectory("gvt-benchmark");
+        copyRepository(Path.of(""), snapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        System.setOut(systemOut);
+        deleteRepository(Path.of(""));
+        deleteRepository(snapshot);
+        Files.delete(snapshot);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void add(NewFile newFile) {
+        gvt.mainInternal("add", NEW_FILE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void commit(ChangedFile changedFile) {
+        gvt.mainInternal("commit", fileName(0));
+    }
+
+    @Benchmark
+    public void checkout() {
+        gvt.mainInternal("checkout", String.valueOf(versions - 1 - checkouts++ % 2));
+    }
+
+    @Benchmark
+    public void historyLast10() {
+        gvt.mainInternal("history", "-last", "10");
+    }
+
+    @Benchmark
+    public void history() {
+        gvt.mainInternal("history");
+    }
+
+    @Benchmark
+    public void version() {
+        gvt.mainInternal("version", String.valueOf(versions / 2));
+    }
+
+    /**
+     * Puts the repository back as the trial setup left it. The repository keeps state mapped in
+     * memory, so a new {@link Gvt} opens the restored one.
+     */
+    private void restoreSnapshot() throws IOException {
+        deleteRepository(Path.of(""));
+        copyRepository(snapshot, Path.of(""));
+        gvt = new Gvt(new BenchmarkExitHandler());
+    }
+
+    private static void copyRepository(Path from, Path to) throws IOException {
+        Path gvtFrom = from.resolve(".gvt");
+        try (Stream<Path> gvtFiles = Files.walk(gvtFrom)) {
+            for (Path file : gvtFiles.toList()) {
+                Path target = to.resolve(".gvt").resolve(gvtFrom.relativize(file).toString());
+                if (Files.isDirectory(file)) Files.createDirectories(target);
+                else Files.copy(file, target);
+            }
+        }
+        try (Stream<Path> benchFiles = Files.list(from.toAbsolutePath())) {
+            for (Path file : benchFiles.filter(p -> p.getFileName().toString().startsWith(FILE_PREFIX)).toList())
+                Files.copy(file, to.resolve(file.getFileName().toString()));
+        }
+    }
+
+    private static void deleteRepository(Path dir) throws IOException {
+        try (Stream<Path> gvtFiles = Files.walk(dir.resolve(".gvt"))) {
+            for (Path file : gvtFiles.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+        try (Stream<Path> benchFiles = Files.list(dir.toAbsolutePath())) {
+            for (Path file : benchFiles.filter(p -> p.getFileName().toString().startsWith(FILE_PREFIX)).toList())
+                Files.delete(file);
+        }
+    }
+
+    private static String fileName(int index) {
+        return FILE_PREFIX + index + ".dat";
+    }
+
+    private void writeFile(String name) throws IOException {
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        Files.write(Path.of(name), content);
+    }
+}
@@ -0,0 +1,54 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Content-defined chunking with a gear rolling hash. A boundary falls where the top bits of the
+ * fingerprint are all zero, which depends only on the last 64 bytes, so an edit moves boundaries
+ * near it and leaves the rest of the chunks, and their hashes, as they were. Chunks average about
+ * 1 MiB and are bounded by {@link #MIN_SIZE} and {@link #MAX_SIZE}, so memory use does not depend
+ * on the file size.
+ */
+final class Chunker {
+    static final int MIN_SIZE = 256 * 1024;
+    static final int MAX_SIZE = 4 * 1024 * 1024;
+    private static final long BOUNDARY_MASK = 0xFFFFF000_00000000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x67767443L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    interface ChunkConsumer {
+        void accept(byte[] chunk, int length) throws IOException;
+    }
+
+    private Chunker() {
+    }
+
+    /**
+     * Splits the stream into chunks. The array passed to the consumer is reused for the next chunk.
+     */
+    static void split(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] chunk = new byte[MAX_SIZE];
+        byte[] buffer = new byte[64 * 1024];
+        int length = 0;
+        long fingerprint = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                chunk[length++] = buffer[i];
+                fingerprint = (fingerprint << 1) + GEAR[buffer[i] & 0xff];
+                if (length == MAX_SIZE || (length >= MIN_SIZE && (fingerprint & BOUNDARY_MASK) == 0)) {
+                    consumer.accept(chunk, length);
+                    length = 0;
+                    fingerprint = 0;
+                }
+            }
+        }
+        if (length > 0) consumer.accept(chunk, length);
+    }
+}
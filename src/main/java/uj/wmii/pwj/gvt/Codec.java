@@ -0,0 +1,84 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression codec for stored objects. The codec name is written into every compressed object, so a
+ * codec has to stay registered under the same name for as long as objects written with it exist.
+ */
+interface Codec {
+
+    String getName();
+
+    OutputStream encode(OutputStream out) throws IOException;
+
+    InputStream decode(InputStream in) throws IOException;
+
+    static Codec forName(String name) {
+        Codec codec = Registry.CODECS.get(name);
+        if (codec == null) throw new IllegalArgumentException("Unknown codec: " + name);
+        return codec;
+    }
+
+    static void register(Codec codec) {
+        Registry.CODECS.put(codec.getName(), codec);
+    }
+
+    final class Registry {
+        private static final Map<String, Codec> CODECS = new ConcurrentHashMap<>();
+
+        static {
+            for (BuiltIn codec : BuiltIn.values()) CODECS.put(codec.getName(), codec);
+        }
+
+        private Registry() {
+        }
+    }
+
+    enum BuiltIn implements Codec {
+        NONE("none", 0),
+        DEFLATE("deflate", Deflater.DEFAULT_COMPRESSION),
+        DEFLATE_FAST("deflate-fast", Deflater.BEST_SPEED);
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final String name;
+        private final int level;
+
+        BuiltIn(String name, int level) {
+            this.name = name;
+            this.level = level;
+        }
+
+        @Override
+        public String getName() { return name; }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            if (this == NONE) return out;
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return this == NONE ? in : new InflaterInputStream(in);
+        }
+    }
+}
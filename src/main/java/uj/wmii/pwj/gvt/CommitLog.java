@@ -0,0 +1,130 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only log of version messages. {@code commits.idx} holds one fixed-size record per version,
+ * in version order: version, commit time, offset of the message in {@code messages.log}, byte length
+ * of its first line and byte length of the whole message. Reading the last n versions touches
+ * exactly n records and the first lines they point to.
+ */
+class CommitLog {
+    static final int RECORD_SIZE = Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int TIME_OFFSET = Integer.BYTES;
+    private static final int MESSAGE_OFFSET = TIME_OFFSET + Long.BYTES;
+    private static final int FIRST_LINE_OFFSET = MESSAGE_OFFSET + Long.BYTES;
+    private static final int LENGTH_OFFSET = FIRST_LINE_OFFSET + Integer.BYTES;
+    private static final String INDEX_FILE_NAME = "commits.idx";
+    private static final String MESSAGES_FILE_NAME = "messages.log";
+    // a mapping covers at most this much of a file; reads past it go through the channel
+    private static final long MAX_MAPPED = Integer.MAX_VALUE;
+
+    private final Path indexFile;
+    private final Path messagesFile;
+    private MappedByteBuffer index;
+    private MappedByteBuffer messages;
+
+    CommitLog(Path dir) {
+        this.indexFile = dir.resolve(INDEX_FILE_NAME);
+        this.messagesFile = dir.resolve(MESSAGES_FILE_NAME);
+    }
+
+    public int getCount() throws IOException {
+        return Files.exists(indexFile) ? (int) (Files.size(indexFile) / RECORD_SIZE) : 0;
+    }
+
+    public boolean contains(int version) throws IOException {
+        return version >= 0 && version < getCount();
+    }
+
+    /**
+     * Appends the record of {@code version}, dropping records of any later versions first,
+     * since those were left by a commit that never got published.
+     */
+    public void append(int version, long time, String message) throws IOException {
+        if (version > getCount()) throw new IllegalArgumentException("Missing log records before version " + version);
+        Files.createDirectories(indexFile.getParent());
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int newLine = message.indexOf('\n');
+        int firstLineLength = newLine < 0 ? bytes.length
+                : message.substring(0, newLine).getBytes(StandardCharsets.UTF_8).length;
+
+        try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel messagesChannel = FileChannel.open(messagesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = version == 0 ? 0 : messageOffset(version - 1) + messageLength(version - 1);
+            indexChannel.truncate((long) version * RECORD_SIZE);
+            messagesChannel.truncate(offset);
+
+            ByteBuffer data = ByteBuffer.wrap(bytes);
+            while (data.hasRemaining()) messagesChannel.write(data, offset + data.position());
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE)
+                    .putInt(version).putLong(time).putLong(offset).putInt(firstLineLength).putInt(bytes.length).flip();
+            while (record.hasRemaining()) indexChannel.write(record, (long) version * RECORD_SIZE + record.position());
+        }
+        index = null;
+        messages = null;
+    }
+
+    public long readTime(int version) throws IOException {
+        return record(version).getLong(TIME_OFFSET);
+    }
+
+    public String readFirstLine(int version) throws IOException {
+        ByteBuffer record = record(version);
+        return decode(record.getLong(MESSAGE_OFFSET), record.getInt(FIRST_LINE_OFFSET));
+    }
+
+    public String readMessage(int version) throws IOException {
+        return decode(messageOffset(version), messageLength(version));
+    }
+
+    private long messageOffset(int version) throws IOException {
+        return record(version).getLong(MESSAGE_OFFSET);
+    }
+
+    private int messageLength(int version) throws IOException {
+        return record(version).getInt(LENGTH_OFFSET);
+    }
+
+    // Published records never change, so the mappings are only refreshed when a read goes past them.
+    // Each read works on its own reference to a mapping, so concurrent readers may safely replace it.
+    private ByteBuffer record(int version) throws IOException {
+        long position = (long) version * RECORD_SIZE;
+        MappedByteBuffer mapped = index;
+        if (mapped == null || position + RECORD_SIZE > mapped.capacity() && mapped.capacity() < MAX_MAPPED)
+            index = mapped = map(indexFile);
+        return read(mapped, indexFile, position, RECORD_SIZE);
+    }
+
+    private String decode(long offset, int length) throws IOException {
+        MappedByteBuffer mapped = messages;
+        if (mapped == null || offset + length > mapped.capacity() && mapped.capacity() < MAX_MAPPED)
+            messages = mapped = map(messagesFile);
+        return StandardCharsets.UTF_8.decode(read(mapped, messagesFile, offset, length)).toString();
+    }
+
+    private static ByteBuffer read(MappedByteBuffer mapped, Path file, long position, int length) throws IOException {
+        if (position + length <= mapped.capacity()) return mapped.slice((int) position, length);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Truncated " + file);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_MAPPED));
+        }
+    }
+}
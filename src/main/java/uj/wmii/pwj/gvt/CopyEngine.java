@@ -0,0 +1,78 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs per-file I/O on a bounded pool of threads. Every task runs even when some fail; failures are
+ * then reported in the order the files were given, the first as the cause of the thrown exception
+ * and the rest suppressed on it, so the report does not depend on thread scheduling.
+ */
+class CopyEngine {
+
+    interface FileTask<R> {
+        R apply(String name) throws IOException;
+    }
+
+    private final int parallelism;
+
+    CopyEngine(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() { return parallelism; }
+
+    public void forEach(List<String> names, FileTask<?> task) throws IOException {
+        map(names, task);
+    }
+
+    public <R> Map<String, R> map(List<String> names, FileTask<R> task) throws IOException {
+        Map<String, R> results = new LinkedHashMap<>();
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        int threads = Math.min(parallelism, names.size());
+        if (threads <= 1) {
+            for (String name : names) {
+                try {
+                    results.put(name, task.apply(name));
+                } catch (IOException | RuntimeException e) {
+                    failures.put(name, e);
+                }
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "gvt-copy");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<R>> futures = new ArrayList<>(names.size());
+                for (String name : names) futures.add(executor.submit(() -> task.apply(name)));
+                for (int i = 0; i < names.size(); i++) {
+                    try {
+                        results.put(names.get(i), futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        failures.put(names.get(i), e.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Copy interrupted");
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        if (!failures.isEmpty()) throw failure(failures, names.size());
+        return results;
+    }
+
+    private static IOException failure(Map<String, Throwable> failures, int total) {
+        Iterator<Map.Entry<String, Throwable>> entries = failures.entrySet().iterator();
+        Map.Entry<String, Throwable> first = entries.next();
+        IOException failure = new IOException(failures.size() + " of " + total
+                + " file operations failed, first: " + first.getKey(), first.getValue());
+        while (entries.hasNext()) failure.addSuppressed(entries.next().getValue());
+        return failure;
+    }
+}
@@ -0,0 +1,148 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Binary delta between two revisions of a file. The encoded form is a sequence of COPY (offset, length
+ * into the base) and INSERT (literal bytes) operations, matched on fixed blocks of the base.
+ */
+final class Delta {
+    private static final int BLOCK = 16;
+    private static final long PRIME = 1_000_003L;
+    private static final long OUT_FACTOR = power(PRIME, BLOCK - 1);
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    private Delta() {
+    }
+
+    /**
+     * Offsets of the base blocks by their hashes, the first block for each hash. An open-addressing
+     * table of primitives, at most half full, so a 16 MiB base costs 24 MiB rather than the boxed
+     * entries of a map.
+     */
+    private static final class BlockIndex {
+        private final long[] hashes;
+        private final int[] offsets;
+        private final int mask;
+
+        BlockIndex(int blocks) {
+            int capacity = Integer.highestOneBit(Math.max(1, blocks) * 2 - 1) << 1;
+            hashes = new long[capacity];
+            offsets = new int[capacity];
+            Arrays.fill(offsets, -1);
+            mask = capacity - 1;
+        }
+
+        void putIfAbsent(long hash, int offset) {
+            int slot = slot(hash);
+            while (offsets[slot] >= 0) {
+                if (hashes[slot] == hash) return;
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            offsets[slot] = offset;
+        }
+
+        /**
+         * Offset of the block with this hash, or -1 when there is none.
+         */
+        int get(long hash) {
+            for (int slot = slot(hash); offsets[slot] >= 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash) return offsets[slot];
+            }
+            return -1;
+        }
+
+        private int slot(long hash) {
+            return (int) (hash * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        }
+    }
+
+    static byte[] encode(byte[] base, byte[] target) {
+        BlockIndex index = new BlockIndex(base.length / BLOCK);
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            index.putIfAbsent(hash(base, offset), offset);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int literalStart = 0;
+            int i = 0;
+            long h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int candidate = index.get(h);
+                if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK, target, i, i + BLOCK)) {
+                    int start = candidate;
+                    int length = BLOCK;
+                    while (i + length < target.length && start + length < base.length
+                            && base[start + length] == target[i + length]) length++;
+                    int back = 0;
+                    while (i - back > literalStart && start - back > 0
+                            && base[start - back - 1] == target[i - back - 1]) back++;
+
+                    writeInsert(out, target, literalStart, i - back);
+                    out.writeByte(COPY);
+                    out.writeInt(start - back);
+                    out.writeInt(length + back);
+
+                    i += length;
+                    literalStart = i;
+                    if (i + BLOCK <= target.length) h = hash(target, i);
+                } else {
+                    if (i + BLOCK < target.length) h = roll(h, target[i], target[i + BLOCK]);
+                    i++;
+                }
+            }
+            writeInsert(out, target, literalStart, target.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(base.length);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        int op;
+        while ((op = in.read()) != -1) {
+            if (op == COPY) {
+                int offset = in.readInt();
+                int length = in.readInt();
+                result.write(base, offset, length);
+            } else if (op == INSERT) {
+                byte[] literal = new byte[in.readInt()];
+                in.readFully(literal);
+                result.write(literal);
+            } else {
+                throw new IOException("Corrupted delta, unknown operation: " + op);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target, int from, int to) throws IOException {
+        if (from >= to) return;
+        out.writeByte(INSERT);
+        out.writeInt(to - from);
+        out.write(target, from, to - from);
+    }
+
+    private static long hash(byte[] data, int offset) {
+        long h = 0;
+        for (int i = offset; i < offset + BLOCK; i++) h = h * PRIME + (data[i] & 0xff);
+        return h;
+    }
+
+    private static long roll(long h, byte out, byte in) {
+        return (h - (out & 0xff) * OUT_FACTOR) * PRIME + (in & 0xff);
+    }
+
+    private static long power(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) result *= base;
+        return result;
+    }
+}
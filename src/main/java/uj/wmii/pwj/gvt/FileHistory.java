@@ -0,0 +1,92 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from file name to the versions that added, committed or detached the file. Each
+ * name has its own record file, named after the SHA-256 of the name and sharded like objects, holding
+ * fixed-size records of version and action in version order. Looking up a file reads only its own
+ * records. {@code count} holds the number of versions indexed so far.
+ */
+class FileHistory {
+    static final int RECORD_SIZE = Integer.BYTES + Byte.BYTES;
+    private static final String COUNT_FILE_NAME = "count";
+
+    enum Action {
+        ADDED, COMMITTED, DETACHED
+    }
+
+    record Revision(int version, Action action) {
+    }
+
+    private final Path dir;
+
+    FileHistory(Path dir) {
+        this.dir = dir;
+    }
+
+    public int getCount() throws IOException {
+        Path countFile = dir.resolve(COUNT_FILE_NAME);
+        return Files.exists(countFile) ? ByteBuffer.wrap(Files.readAllBytes(countFile)).getInt() : 0;
+    }
+
+    /**
+     * Records the files changed by {@code version}. Records a file already has for this or later
+     * versions were left by an interrupted append and are replaced.
+     */
+    public void append(int version, Map<String, Action> changes) throws IOException {
+        if (version > getCount()) throw new IllegalArgumentException("Missing file records before version " + version);
+        for (Map.Entry<String, Action> change : changes.entrySet()) {
+            Path file = locate(change.getKey());
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = channel.size() / RECORD_SIZE * RECORD_SIZE;
+                ByteBuffer last = ByteBuffer.allocate(Integer.BYTES);
+                while (end > 0 && channel.read(last.clear(), end - RECORD_SIZE) == Integer.BYTES && last.getInt(0) >= version)
+                    end -= RECORD_SIZE;
+                channel.truncate(end);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).putInt(version).put((byte) change.getValue().ordinal()).flip();
+                while (record.hasRemaining()) channel.write(record, end + record.position());
+            }
+        }
+        Files.createDirectories(dir);
+        // readers take no lock, so the count is replaced whole rather than rewritten in place
+        Path countFile = dir.resolve(COUNT_FILE_NAME);
+        Path temp = countFile.resolveSibling(COUNT_FILE_NAME + ".tmp");
+        Files.write(temp, ByteBuffer.allocate(Integer.BYTES).putInt(version + 1).array());
+        Files.move(temp, countFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Revisions of the file in version order, limited to versions already indexed.
+     */
+    public List<Revision> revisions(String name) throws IOException {
+        Path file = locate(name);
+        List<Revision> revisions = new ArrayList<>();
+        if (!Files.exists(file)) return revisions;
+        int count = getCount();
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (records.remaining() >= RECORD_SIZE) {
+            int version = records.getInt();
+            Action action = Action.values()[records.get()];
+            if (version < count) revisions.add(new Revision(version, action));
+        }
+        return revisions;
+    }
+
+    private Path locate(String name) {
+        String hash = HexFormat.of().formatHex(ObjectStore.newDigest().digest(name.getBytes(StandardCharsets.UTF_8)));
+        return dir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+}
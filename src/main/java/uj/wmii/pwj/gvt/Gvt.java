@@ -1,9 +1,14 @@
 package uj.wmii.pwj.gvt;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 
 public class Gvt {
@@ -18,10 +23,31 @@ public class Gvt {
     }
 
     public static void main(String... args) {
+        if (args.length > 0 && !"SERVE".equalsIgnoreCase(args[0])) {
+            GvtServer server = new GvtServer(FileRepository.getSocket());
+            try {
+                Integer code = server.forward(args, System.in, System.out, System.err);
+                if (code != null) {
+                    new ExitHandler().exitOperation(code);
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                new ExitHandler().exit(-3, "Underlying system problem. See ERR for details.");
+                return;
+            }
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(Metrics::end));
         new Gvt(new ExitHandler()).mainInternal(args);
     }
 
+    /**
+     * Runs one command. A leading {@code -stats} prints the command's I/O counters and phase times
+     * to standard error when it ends, leaving its output unchanged.
+     */
     public void mainInternal(String... args) {
+        boolean stats = args.length > 0 && Metrics.STATS_OPTION.equals(args[0]);
+        if (stats) args = Arrays.copyOfRange(args, 1, args.length);
         if (args.length == 0) {
             exitHandler.exit(1, "Please specify command.");
             return;
@@ -36,7 +62,12 @@ public class Gvt {
             return;
         }
 
-        command.execute(commandArgs);
+        Metrics.begin(args[0].toLowerCase(), stats ? System.err : null);
+        try {
+            command.execute(commandArgs);
+        } finally {
+            Metrics.end();
+        }
     }
 
 
@@ -44,6 +75,112 @@ public class Gvt {
         void execute(String[] args);
     }
 
+    /**
+     * File arguments of add and commit: everything before the optional trailing {@code -m "message"}.
+     */
+    static List<String> fileArguments(String[] args) {
+        int end = args.length;
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("-m".equals(args[i])) {
+                end = i;
+                break;
+            }
+        }
+        return List.of(args).subList(0, end);
+    }
+
+    static String userMessage(String[] args) {
+        int end = fileArguments(args).size();
+        return end < args.length ? args[end + 1] : null;
+    }
+
+    /**
+     * Expands glob patterns against the current directory, or against the whole tree below it when
+     * the pattern contains a slash, and replaces {@code -} with the paths read from standard input,
+     * one per line. A pattern matching nothing is kept as is, so it is reported as a missing file.
+     * Other paths are normalized to their tracked names, so {@code ./a.txt} is {@code a.txt}.
+     */
+    static List<String> expandFileArguments(List<String> arguments) throws IOException {
+        Set<String> filenames = new LinkedHashSet<>();
+        for (String argument : arguments) {
+            if ("-".equals(argument)) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+                reader.lines().map(String::trim).filter(line -> !line.isEmpty())
+                        .map(line -> trackedName(Paths.get(line))).forEach(filenames::add);
+            } else if (argument.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + argument);
+                List<String> matches;
+                Metrics.directoryListed();
+                try (Stream<Path> files = argument.contains("/") ? Files.walk(Paths.get("")) : Files.list(Paths.get(""))) {
+                    matches = files.filter(Files::isRegularFile)
+                            .filter(path -> !isRepositoryPath(path))
+                            .map(Gvt::trackedName)
+                            .filter(name -> matcher.matches(Paths.get(name)))
+                            .sorted()
+                            .toList();
+                }
+                if (matches.isEmpty()) filenames.add(argument);
+                else filenames.addAll(matches);
+            } else {
+                filenames.add(trackedName(Paths.get(argument)));
+            }
+        }
+        return new ArrayList<>(filenames);
+    }
+
+    /**
+     * Replaces directories with the regular files below them, as slash-separated paths in name
+     * order. The repository folder is skipped.
+     */
+    static List<String> expandDirectories(List<String> filenames) throws IOException {
+        Set<String> expanded = new LinkedHashSet<>();
+        for (String filename : filenames) {
+            Path path = Paths.get(filename);
+            if (!Files.isDirectory(path)) {
+                expanded.add(filename);
+                continue;
+            }
+            Metrics.directoryListed();
+            try (Stream<Path> files = Files.walk(path)) {
+                files.filter(Files::isRegularFile).filter(file -> !isRepositoryPath(file))
+                        .map(Gvt::trackedName).sorted().forEach(expanded::add);
+            }
+        }
+        return new ArrayList<>(expanded);
+    }
+
+    private static boolean isRepositoryPath(Path path) {
+        for (Path part : path) if (FileRepository.PREFIX.equals(part.toString())) return true;
+        return false;
+    }
+
+    static String trackedName(Path path) {
+        return path.normalize().toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * The tracked file of that name, or the tracked files below it when it names a directory.
+     */
+    static List<String> trackedFiles(Map<String, String> manifest, String name) {
+        if (manifest.containsKey(name)) return List.of(name);
+        String directory = trackedName(Paths.get(name));
+        if (directory.isEmpty()) return new ArrayList<>(manifest.keySet());
+        String prefix = directory + "/";
+        List<String> files = new ArrayList<>();
+        for (String tracked : manifest.keySet()) if (tracked.startsWith(prefix)) files.add(tracked);
+        return files;
+    }
+
+    static String describeFiles(List<String> filenames) {
+        return (filenames.size() == 1 ? "File: " : "Files: ") + String.join(", ", filenames);
+    }
+
+    static Map<String, FileHistory.Action> actions(List<String> filenames, FileHistory.Action action) {
+        Map<String, FileHistory.Action> actions = new TreeMap<>();
+        for (String filename : filenames) actions.put(filename, action);
+        return actions;
+    }
+
     static class CommandFactory {
         private final Map<String, GvtCommand> commands = new HashMap<>();
 
@@ -55,6 +192,16 @@ public class Gvt {
             commands.put("COMMIT", new CommitCommand(repo, exitHandler));
             commands.put("HISTORY", new HistoryCommand(repo, exitHandler));
             commands.put("VERSION", new VersionCommand(repo, exitHandler));
+            commands.put("PACK", new PackCommand(repo, exitHandler));
+            commands.put("STATUS", new StatusCommand(repo, exitHandler));
+            commands.put("STATS", new StatsCommand(repo, exitHandler));
+            commands.put("LOG", new LogCommand(repo, exitHandler));
+            commands.put("DIFF", new DiffCommand(repo, exitHandler));
+            commands.put("SHOW", new ShowCommand(repo, exitHandler));
+            commands.put("TAG", new TagCommand(repo, exitHandler));
+            commands.put("GC", new GcCommand(repo, exitHandler));
+            commands.put("FSCK", new FsckCommand(repo, exitHandler));
+            commands.put("SERVE", new ServeCommand(repo, exitHandler));
         }
 
         public GvtCommand getCommand(String name) {
@@ -66,8 +213,108 @@ public class Gvt {
         private final ExitHandler exitHandler;
         private static final String PREFIX = ".gvt";
         private static final String MESSAGE_FILE_NAME = ".gvt.message";
+        private static final String MANIFEST_FILE_NAME = ".gvt.manifest";
+        private static final String TREE_MANIFEST_PREFIX = "tree ";
         private static final String ACTIVE_FILE_NAME = ".gvt.active";
         private static final String LATEST_FILE_NAME = ".gvt.latest";
+        private static final String HEAD_FILE_NAME = ".gvt.head";
+        private static final String CONFIG_FILE_NAME = ".gvt.config";
+        private static final String INDEX_FILE_NAME = ".gvt.index";
+        private static final String SPARSE_FILE_NAME = ".gvt.sparse";
+        private static final String TAGS_FILE_NAME = ".gvt.tags";
+        private static final String PRUNED_FILE_NAME = ".gvt.pruned";
+        private static final String SOCKET_FILE_NAME = ".gvt.sock";
+        private static final String LOCK_FILE_NAME = ".gvt.lock";
+        private static final String OBJECTS_DIR_NAME = "objects";
+        private static final String PACK_DIR_NAME = "pack";
+        private static final String LOG_DIR_NAME = "log";
+        private static final String FILES_DIR_NAME = "files";
+        private static final String TMP_DIR_NAME = "tmp";
+        private static final String SNAPSHOT_KEY = "snapshot";
+        private static final String PARALLELISM_KEY = "parallelism";
+        private static final String COMPRESSION_KEY = "compression";
+        private static final String DURABILITY_KEY = "durability";
+
+        /**
+         * How version folders are populated. MANIFEST keeps only the manifest; COPY and LINK also
+         * lay out every tracked file in the folder so external tools can read it, LINK by hard-linking
+         * the immutable object and falling back to a copy where the file system refuses links.
+         */
+        enum SnapshotMode {
+            MANIFEST, COPY, LINK;
+
+            static SnapshotMode parse(String name) {
+                return valueOf(name.toUpperCase());
+            }
+
+            void materialize(Path object, Path target) throws IOException {
+                // on a cross-device or link-less file system, copy instead
+                if (this == LINK && link(object, target)) return;
+                ObjectStore.transfer(object, target);
+            }
+
+            /**
+             * Hard-links the target to an existing file; false when the file is missing or cannot be
+             * linked to.
+             */
+            static boolean link(Path existing, Path target) throws IOException {
+                try {
+                    Files.createLink(target, existing);
+                    return true;
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Whether a new version is synced to disk before it is published. NONE leaves flushing to the
+         * operating system: a crash can lose the last versions, but never leaves a torn one.
+         */
+        enum Durability {
+            NONE, SYNC;
+
+            static Durability parse(String name) {
+                return valueOf(name.toUpperCase());
+            }
+        }
+
+        /**
+         * Exclusive hold on a repository for one writing command. Threads of this JVM queue on a
+         * fair in-process lock first, since the file lock is held per process and a second channel
+         * of the same JVM would fail instead of waiting.
+         */
+        static class WriteLock implements Closeable {
+            private static final ReentrantLock LOCAL = new ReentrantLock(true);
+            private final FileChannel channel;
+
+            private WriteLock(FileChannel channel) {
+                this.channel = channel;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    channel.close();
+                } finally {
+                    LOCAL.unlock();
+                }
+            }
+        }
+
+        /**
+         * A repository file opened on first use, with the repository it belongs to. Both are replaced
+         * as one through a volatile field, so that threads sharing this repository, such as the
+         * parallel readers of history, never see a file of another repository. Two threads may open
+         * the same file at once; the readers are safe to use side by side, so either may be kept.
+         */
+        private record Opened<T>(Path home, T file) {
+        }
+
+        private volatile Opened<RepositoryHeader> header;
+        private volatile Opened<VersionPack> pack;
+        private volatile Opened<CommitLog> log;
+        private volatile Opened<FileHistory> fileHistory;
 
         public FileRepository(ExitHandler exitHandler) {
             this.exitHandler = exitHandler;
@@ -81,41 +328,773 @@ public class Gvt {
         }
 
         public int getLatestVersion(Path home) throws IOException {
-            return Integer.parseInt(Files.readString(home.resolve(LATEST_FILE_NAME)));
+            return getHeader(home).getLatest();
         }
 
         public int getActiveVersion(Path home) throws IOException {
-            return Integer.parseInt(Files.readString(home.resolve(ACTIVE_FILE_NAME)));
+            return getHeader(home).getActive();
         }
 
         public void setActiveVersion(Path home, int version) throws IOException {
-            Files.writeString(home.resolve(ACTIVE_FILE_NAME), Integer.toString(version));
+            RepositoryHeader repositoryHeader = getWritableHeader(home);
+            repositoryHeader.setActive(version);
+            if (getDurability(home) == Durability.SYNC) repositoryHeader.force();
+        }
+
+        /**
+         * Header of the repository, mapped on first use. A repository from before the header gets one
+         * built from its pointer files, which are then removed; one whose first version is not
+         * published yet gets an empty header, with no latest version. The header is created under
+         * the write lock, taken here unless this thread already holds it, so that the migration
+         * runs once. The header is mapped read-only, so that commands that only read work on a
+         * repository they cannot write to, until {@link #getWritableHeader} is first called.
+         */
+        public RepositoryHeader getHeader(Path home) throws IOException {
+            return getHeader(home, false);
+        }
+
+        /**
+         * Header of the repository, mapped for writing.
+         */
+        public RepositoryHeader getWritableHeader(Path home) throws IOException {
+            return getHeader(home, true);
+        }
+
+        private RepositoryHeader getHeader(Path home, boolean writable) throws IOException {
+            Opened<RepositoryHeader> opened = header;
+            if (opened == null || !home.equals(opened.home()) || writable && !opened.file().isWritable()) {
+                Path headFile = home.resolve(HEAD_FILE_NAME);
+                if (!Files.exists(headFile)) {
+                    if (WriteLock.LOCAL.isHeldByCurrentThread()) {
+                        createHeader(home, headFile);
+                    } else {
+                        try (WriteLock ignored = lockForChecking(home)) {
+                            if (!Files.exists(headFile)) createHeader(home, headFile);
+                        }
+                    }
+                }
+                header = opened = new Opened<>(home, RepositoryHeader.open(headFile, writable));
+            }
+            return opened.file();
+        }
+
+        private void createHeader(Path home, Path headFile) throws IOException {
+            Path latestFile = home.resolve(LATEST_FILE_NAME);
+            if (!Files.exists(latestFile)) {
+                RepositoryHeader.create(headFile, -1, -1, 0, 0, 0);
+                return;
+            }
+            int latest = Integer.parseInt(Files.readString(latestFile).trim());
+            for (int v = 1; v <= latest; v++) migrateVersionFolder(home, v);
+            Path activeFile = home.resolve(ACTIVE_FILE_NAME);
+            int active = Files.exists(activeFile) ? Integer.parseInt(Files.readString(activeFile).trim()) : latest;
+            long storedBytes = 0;
+            Path objectsDir = home.resolve(OBJECTS_DIR_NAME);
+            if (Files.exists(objectsDir)) {
+                Metrics.directoryListed();
+                try (Stream<Path> files = Files.walk(objectsDir)) {
+                    for (Path file : files.filter(Files::isRegularFile).toList()) storedBytes += Files.size(file);
+                }
+            }
+            RepositoryHeader.create(headFile, latest, active, latest + 1, readManifest(home, latest).size(), storedBytes);
+            Files.deleteIfExists(latestFile);
+            Files.deleteIfExists(activeFile);
+        }
+
+        /**
+         * Gives a version folder from before the object store a manifest. Such a folder holds a copy
+         * of every tracked file, which is stored as an object; the copies stay where they are.
+         */
+        private void migrateVersionFolder(Path home, int version) throws IOException {
+            Path versionFolder = home.resolve(String.valueOf(version));
+            Path manifestFile = versionFolder.resolve(MANIFEST_FILE_NAME);
+            if (!Files.isDirectory(versionFolder) || Files.exists(manifestFile)) return;
+            ObjectStore objects = getObjects(home);
+            Map<String, String> manifest = new TreeMap<>();
+            Metrics.directoryListed();
+            try (Stream<Path> files = Files.walk(versionFolder)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    String name = trackedName(versionFolder.relativize(file));
+                    if (!name.equals(MESSAGE_FILE_NAME)) manifest.put(name, objects.store(file));
+                }
+            }
+            String root = Tree.write(objects, manifest);
+            sync(home, objects.drainWritten());
+            Path temp = manifestFile.resolveSibling(MANIFEST_FILE_NAME + ".tmp");
+            Files.writeString(temp, TREE_MANIFEST_PREFIX + root + " " + manifest.size() + "\n");
+            Files.move(temp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private Path newTempPath(Path home) throws IOException {
+            Path tmp = Files.createDirectories(home.resolve(TMP_DIR_NAME));
+            return tmp.resolve(UUID.randomUUID().toString());
+        }
+
+        public Properties readConfig(Path home) throws IOException {
+            return readProperties(home.resolve(CONFIG_FILE_NAME));
+        }
+
+        public void writeConfig(Path home, Properties config) throws IOException {
+            writeProperties(home.resolve(CONFIG_FILE_NAME), config);
+        }
+
+        /**
+         * Tag names mapped to the versions they point at.
+         */
+        public Properties readTags(Path home) throws IOException {
+            return readProperties(home.resolve(TAGS_FILE_NAME));
+        }
+
+        public void writeTags(Path home, Properties tags) throws IOException {
+            writeProperties(home.resolve(TAGS_FILE_NAME), tags);
+        }
+
+        private static Properties readProperties(Path file) throws IOException {
+            Properties properties = new Properties();
+            if (Files.exists(file)) {
+                Metrics.metadataRead();
+                try (Reader reader = Files.newBufferedReader(file)) {
+                    properties.load(reader);
+                }
+            }
+            return properties;
+        }
+
+        private static void writeProperties(Path file, Properties properties) throws IOException {
+            try (Writer writer = Files.newBufferedWriter(file)) {
+                properties.store(writer, null);
+            }
+        }
+
+        /**
+         * Versions whose files gc removed, as a bit per version. Their messages stay in the commit log.
+         */
+        public BitSet readPruned(Path home) throws IOException {
+            Path prunedFile = home.resolve(PRUNED_FILE_NAME);
+            if (!Files.exists(prunedFile)) return new BitSet();
+            Metrics.metadataRead();
+            return BitSet.valueOf(Files.readAllBytes(prunedFile));
+        }
+
+        public boolean isPruned(Path home, int version) throws IOException {
+            return readPruned(home).get(version);
+        }
+
+        public void writePruned(Path home, BitSet pruned) throws IOException {
+            Path prunedFile = home.resolve(PRUNED_FILE_NAME);
+            Path temp = prunedFile.resolveSibling(prunedFile.getFileName() + ".tmp");
+            Files.write(temp, pruned.toByteArray());
+            Files.move(temp, prunedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        public SnapshotMode getSnapshotMode(Path home) throws IOException {
+            return SnapshotMode.parse(readConfig(home).getProperty(SNAPSHOT_KEY, SnapshotMode.MANIFEST.name()));
+        }
+
+        public void setSnapshotMode(Properties config, SnapshotMode mode) {
+            config.setProperty(SNAPSHOT_KEY, mode.name().toLowerCase());
+        }
+
+        public Durability getDurability(Path home) throws IOException {
+            return Durability.parse(readConfig(home).getProperty(DURABILITY_KEY, Durability.NONE.name()));
+        }
+
+        public void setDurability(Properties config, Durability durability) {
+            config.setProperty(DURABILITY_KEY, durability.name().toLowerCase());
+        }
+
+        public ObjectStore getObjects(Path home) throws IOException {
+            return new ObjectStore(home.resolve(OBJECTS_DIR_NAME), getCodec(home));
+        }
+
+        /**
+         * Codec for new objects. Deflate unless configured otherwise; link snapshots keep objects
+         * plain by default so that they can be hard-linked.
+         */
+        public Codec getCodec(Path home) throws IOException {
+            Properties config = readConfig(home);
+            String name = config.getProperty(COMPRESSION_KEY);
+            if (name != null) return Codec.forName(name);
+            return getSnapshotMode(home) == SnapshotMode.LINK ? Codec.BuiltIn.NONE : Codec.BuiltIn.DEFLATE;
+        }
+
+        public void setCodec(Properties config, Codec codec) {
+            config.setProperty(COMPRESSION_KEY, codec.getName());
+        }
+
+        public WorkingTreeIndex getIndex(Path home) throws IOException {
+            Metrics.metadataRead();
+            return WorkingTreeIndex.load(home.resolve(INDEX_FILE_NAME));
+        }
+
+        public VersionPack getPack(Path home) {
+            Opened<VersionPack> opened = pack;
+            if (opened == null || !home.equals(opened.home()))
+                pack = opened = new Opened<>(home, new VersionPack(home.resolve(PACK_DIR_NAME)));
+            return opened.file();
+        }
+
+        public CommitLog getCommitLog(Path home) {
+            Opened<CommitLog> opened = log;
+            if (opened == null || !home.equals(opened.home()))
+                log = opened = new Opened<>(home, new CommitLog(home.resolve(LOG_DIR_NAME)));
+            return opened.file();
+        }
+
+        public FileHistory getFileHistory(Path home) {
+            Opened<FileHistory> opened = fileHistory;
+            if (opened == null || !home.equals(opened.home()))
+                fileHistory = opened = new Opened<>(home, new FileHistory(home.resolve(FILES_DIR_NAME)));
+            return opened.file();
+        }
+
+        public String readFirstLine(Path home, int version) throws IOException {
+            CommitLog commitLog = getCommitLog(home);
+            if (commitLog.contains(version)) return commitLog.readFirstLine(version);
+            return readMessage(home, version).split("\n")[0];
+        }
+
+        public String readMessage(Path home, int version) throws IOException {
+            CommitLog commitLog = getCommitLog(home);
+            if (commitLog.contains(version)) return commitLog.readMessage(version);
+            Path messageFile = home.resolve(String.valueOf(version)).resolve(MESSAGE_FILE_NAME);
+            Metrics.metadataRead();
+            try {
+                return Files.readString(messageFile);
+            } catch (NoSuchFileException e) {
+                // packed, possibly by a writer running right now
+            }
+            String message = getPack(home).readMessage(version);
+            if (message == null) throw new NoSuchFileException(messageFile.toString());
+            return message;
+        }
+
+        public String readManifestText(Path home, int version) throws IOException {
+            Path versionFolder = home.resolve(String.valueOf(version));
+            Metrics.metadataRead();
+            try {
+                return Files.readString(versionFolder.resolve(MANIFEST_FILE_NAME));
+            } catch (NoSuchFileException e) {
+                // packed, possibly by a writer running right now; the pack is written first
+            }
+            String manifest = getPack(home).readManifest(version);
+            if (manifest != null) return manifest;
+            // the initial version of repositories from before manifests has none, and tracks nothing
+            if (version == 0 && Files.exists(versionFolder)) return "";
+            // later versions of such repositories get theirs when the header is first created
+            if (Files.exists(versionFolder) && !Files.exists(home.resolve(HEAD_FILE_NAME))) {
+                getHeader(home);
+                return readManifestText(home, version);
+            }
+            throw new NoSuchFileException(versionFolder.toString());
+        }
+
+        /**
+         * Returns tracked file names mapped to content hashes. Versions are never modified,
+         * so the map is a private copy the caller may edit to build the next version.
+         */
+        public Map<String, String> readManifest(Path home, int version) throws IOException {
+            try (Metrics.Phase ignored = Metrics.phase("manifest")) {
+                String text = readManifestText(home, version);
+                if (text.startsWith(TREE_MANIFEST_PREFIX)) return Tree.read(getObjects(home), text.split(" ")[1]);
+                Map<String, String> manifest = new TreeMap<>();
+                for (String line : text.split("\n")) {
+                    if (line.isEmpty()) continue;
+                    int separator = line.indexOf(' ');
+                    manifest.put(line.substring(separator + 1), line.substring(0, separator));
+                }
+                return manifest;
+            }
+        }
+
+        /**
+         * Hash of the root tree of a version, or null for versions from before trees, whose manifest
+         * lists every file.
+         */
+        public String readTreeRoot(Path home, int version) throws IOException {
+            String text = readManifestText(home, version);
+            return text.startsWith(TREE_MANIFEST_PREFIX) ? text.split(" ")[1] : null;
+        }
+
+        /**
+         * Hash of one tracked file of a version, or null when the version does not track it. Versions
+         * with trees are read only along the file's path, whatever their size.
+         */
+        public String readFileHash(Path home, int version, String name) throws IOException {
+            String path = trackedName(Paths.get(name));
+            String root = readTreeRoot(home, version);
+            if (root == null) return readManifest(home, version).get(path);
+            Tree.Entry entry = path.isEmpty() ? null : Tree.find(getObjects(home), root, path);
+            return entry == null || entry.isTree() ? null : entry.hash();
+        }
+
+        /**
+         * The tracked file of that name in a version, or the tracked files below it when it names a
+         * directory, mapped to their hashes. Like {@link #readFileHash}, reads only the trees on the
+         * path and below it.
+         */
+        public Map<String, String> readFiles(Path home, int version, String name) throws IOException {
+            String path = trackedName(Paths.get(name));
+            String root = readTreeRoot(home, version);
+            Map<String, String> files = new TreeMap<>();
+            if (root == null || path.isEmpty()) {
+                Map<String, String> manifest = readManifest(home, version);
+                for (String file : trackedFiles(manifest, path)) files.put(file, manifest.get(file));
+                return files;
+            }
+            ObjectStore objects = getObjects(home);
+            Tree.Entry entry = Tree.find(objects, root, path);
+            if (entry == null) return files;
+            if (!entry.isTree()) files.put(path, entry.hash());
+            else Tree.read(objects, entry.hash()).forEach((file, hash) -> files.put(path + "/" + file, hash));
+            return files;
+        }
+
+        /**
+         * Paths a full checkout writes, as glob patterns in {@code .gvt.sparse}, one per line; a pattern
+         * matching a directory covers everything below it. Blank lines and lines starting with
+         * {@code #} are skipped. Null when there is no pattern file, and every tracked file is written.
+         */
+        public Predicate<String> readSparsePatterns(Path home) throws IOException {
+            Path sparseFile = home.resolve(SPARSE_FILE_NAME);
+            if (!Files.exists(sparseFile)) return null;
+            Metrics.metadataRead();
+            List<PathMatcher> matchers = new ArrayList<>();
+            for (String line : Files.readAllLines(sparseFile)) {
+                String pattern = line.trim();
+                if (!pattern.isEmpty() && !pattern.startsWith("#"))
+                    matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+            }
+            return name -> {
+                for (Path path = Paths.get(name); path != null; path = path.getParent()) {
+                    for (PathMatcher matcher : matchers) if (matcher.matches(path)) return true;
+                }
+                return false;
+            };
+        }
+
+        /**
+         * Hashes and stores the given working files in parallel, each against its base revision
+         * from {@code bases}, and returns their hashes.
+         */
+        public Map<String, String> storeFiles(Path home, List<String> filenames, Map<String, String> bases) throws IOException {
+            try (Metrics.Phase ignored = Metrics.phase("store")) {
+                ObjectStore objects = getObjects(home);
+                Map<String, String> hashes = getCopyEngine(home).map(filenames,
+                        name -> objects.store(Paths.get(name).toAbsolutePath(), bases.get(name)));
+                flushWritten(home, objects);
+                return hashes;
+            }
+        }
+
+        private void flushWritten(Path home, ObjectStore objects) throws IOException {
+            List<Path> written = objects.drainWritten();
+            sync(home, written);
+            long storedBytes = 0;
+            for (Path object : written) storedBytes += Files.size(object);
+            getWritableHeader(home).addStoredBytes(storedBytes);
+        }
+
+        /**
+         * With SYNC durability, forces the files and then their directories to disk. The whole batch
+         * is synced at once on the copy engine, so that the device can merge the flushes instead of
+         * waiting for each file in turn.
+         */
+        private void sync(Path home, List<Path> files) throws IOException {
+            if (files.isEmpty() || getDurability(home) == Durability.NONE) return;
+            CopyEngine engine = getCopyEngine(home);
+            engine.forEach(files.stream().map(Path::toString).toList(), name -> {
+                force(Paths.get(name));
+                return null;
+            });
+            Set<String> directories = new TreeSet<>();
+            for (Path file : files) directories.add(file.getParent().toString());
+            engine.forEach(new ArrayList<>(directories), name -> {
+                force(Paths.get(name));
+                return null;
+            });
+        }
+
+        private static void force(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+            Metrics.synced();
+        }
+
+        /**
+         * Copy engine sized by the {@code parallelism} setting, one thread per core by default.
+         */
+        public CopyEngine getCopyEngine(Path home) throws IOException {
+            String parallelism = readConfig(home).getProperty(PARALLELISM_KEY);
+            return new CopyEngine(parallelism != null ? Integer.parseInt(parallelism.trim())
+                    : Runtime.getRuntime().availableProcessors());
+        }
+
+        public void deleteVersionFolder(Path home, int version) throws IOException {
+            Path versionFolder = home.resolve(String.valueOf(version));
+            if (Files.exists(versionFolder)) deleteTree(versionFolder);
+        }
+
+        private static void deleteTree(Path root) throws IOException {
+            Metrics.directoryListed();
+            try (Stream<Path> files = Files.walk(root)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+            }
+        }
+
+        /**
+         * Prepares the next version in a staging folder under {@code tmp}. Nothing in it is visible
+         * until {@link #finalizeVersion} renames it into place. With a COPY or LINK snapshot, files
+         * unchanged since the previous version are hard-links to its copies, since versions are never
+         * modified, and only changed files are materialized from the object store.
+         */
+        public Path createNewVersion(Path home, int newVersion, Map<String, String> manifest) throws IOException {
+            try (Metrics.Phase ignored = Metrics.phase("stage")) {
+                Path newFolder = newTempPath(home);
+                Files.createDirectories(newFolder);
+                ObjectStore objects = getObjects(home);
+                String root = Tree.write(objects, manifest);
+                flushWritten(home, objects);
+                Files.writeString(newFolder.resolve(MANIFEST_FILE_NAME), TREE_MANIFEST_PREFIX + root + " " + manifest.size() + "\n");
+
+                SnapshotMode mode = getSnapshotMode(home);
+                if (mode != SnapshotMode.MANIFEST) {
+                    Map<String, String> previous = newVersion > 0 ? readManifest(home, newVersion - 1) : Map.of();
+                    Path previousFolder = home.resolve(String.valueOf(newVersion - 1));
+                    getCopyEngine(home).forEach(new ArrayList<>(manifest.keySet()), name -> {
+                        Path target = newFolder.resolve(name);
+                        Files.createDirectories(target.getParent());
+                        String hash = manifest.get(name);
+                        // the previous copy is missing when that version was written without one
+                        if (hash.equals(previous.get(name)) && SnapshotMode.link(previousFolder.resolve(name), target)) return null;
+                        if (objects.isStoredWhole(hash)) mode.materialize(objects.locate(hash), target);
+                        else objects.restore(hash, target);
+                        return null;
+                    });
+                }
+                return newFolder;
+            }
+        }
+
+        /**
+         * Publishes a staged version. The rename of the staging folder is the commit point: once the
+         * folder exists under its number the version is complete, and the log record and header
+         * written after it can be rebuilt by {@link #recover} if the process dies first.
+         */
+        public void finalizeVersion(Path home, Path stagedFolder, String message, int versionNumber,
+                                    Map<String, FileHistory.Action> changes) throws IOException {
+            try (Metrics.Phase ignored = Metrics.phase("publish")) {
+                Files.writeString(stagedFolder.resolve(MESSAGE_FILE_NAME), message);
+                if (getDurability(home) == Durability.SYNC) {
+                    Metrics.directoryListed();
+                    try (Stream<Path> files = Files.walk(stagedFolder)) {
+                        sync(home, files.filter(Files::isRegularFile).toList());
+                    }
+                }
+                Path versionFolder = home.resolve(String.valueOf(versionNumber));
+                Files.move(stagedFolder, versionFolder, StandardCopyOption.ATOMIC_MOVE);
+                sync(home, List.of(versionFolder));
+                appendToCommitLog(home, versionNumber, message);
+                appendToFileHistory(home, versionNumber, changes);
+                publish(home, versionNumber);
+            }
+        }
+
+        private void publish(Path home, int versionNumber) throws IOException {
+            String manifest = readManifestText(home, versionNumber);
+            long files = manifest.startsWith(TREE_MANIFEST_PREFIX) ? Long.parseLong(manifest.trim().split(" ")[2])
+                    : manifest.lines().filter(line -> !line.isEmpty()).count();
+            RepositoryHeader repositoryHeader = getWritableHeader(home);
+            repositoryHeader.publish(versionNumber, files);
+            if (getDurability(home) == Durability.SYNC) repositoryHeader.force();
+        }
+
+        /**
+         * Blocks until no other writer holds the repository, then recovers what an interrupted one
+         * left behind. Waiting writers sleep in the lock rather than poll for it. Readers take no
+         * lock: they only follow pointers that are replaced atomically, to versions that are
+         * complete before they are published.
+         */
+        public WriteLock lockForWriting(Path home) throws IOException {
+            try (Metrics.Phase ignored = Metrics.phase("lock")) {
+                WriteLock lock = lockForChecking(home);
+                try {
+                    recover(home);
+                    return lock;
+                } catch (IOException | RuntimeException e) {
+                    lock.close();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Takes the write lock without recovering, so that what an interrupted writer left behind
+         * can be inspected as it is.
+         */
+        public WriteLock lockForChecking(Path home) throws IOException {
+            WriteLock.LOCAL.lock();
+            WriteLock lock;
+            try {
+                lock = new WriteLock(FileChannel.open(home.resolve(LOCK_FILE_NAME),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+            } catch (IOException | RuntimeException e) {
+                WriteLock.LOCAL.unlock();
+                throw e;
+            }
+            try {
+                lock.channel.lock();
+                return lock;
+            } catch (IOException | RuntimeException e) {
+                lock.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Takes the write lock without recovering or waiting; null when another writer holds it.
+         */
+        public WriteLock tryLockForChecking(Path home) throws IOException {
+            if (!WriteLock.LOCAL.tryLock()) return null;
+            WriteLock lock;
+            try {
+                lock = new WriteLock(FileChannel.open(home.resolve(LOCK_FILE_NAME),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+            } catch (IOException | RuntimeException e) {
+                WriteLock.LOCAL.unlock();
+                throw e;
+            }
+            try {
+                if (lock.channel.tryLock() != null) return lock;
+            } catch (IOException | RuntimeException e) {
+                lock.close();
+                throw e;
+            }
+            lock.close();
+            return null;
+        }
+
+        /**
+         * Finishes or discards what an interrupted writer left behind. Staged folders and temporary
+         * objects were never published and are deleted. Version folders past the latest version were
+         * published, so the header is moved forward to them and their log records filled in.
+         * A clean repository costs a few stat calls.
+         */
+        public void recover(Path home) throws IOException {
+            Path tmp = home.resolve(TMP_DIR_NAME);
+            if (Files.exists(tmp)) deleteTree(tmp);
+            getObjects(home).removeTempFiles();
+
+            int latest = getLatestVersion(home);
+            int published = latest;
+            while (Files.exists(home.resolve(String.valueOf(published + 1)).resolve(MESSAGE_FILE_NAME))) published++;
+            if (published == latest) return;
+
+            if (!getCommitLog(home).contains(published))
+                appendToCommitLog(home, published, readMessage(home, published));
+            if (getFileHistory(home).getCount() <= published)
+                appendToFileHistory(home, published, manifestChanges(home, published));
+            for (int v = latest + 1; v <= published; v++) publish(home, v);
+        }
+
+        /**
+         * Repositories created before the commit log existed get their missing records
+         * filled in from the message files on the first new version.
+         */
+        private void appendToCommitLog(Path home, int versionNumber, String message) throws IOException {
+            backfillCommitLog(home, versionNumber);
+            getCommitLog(home).append(versionNumber, System.currentTimeMillis(), message);
+        }
+
+        private void backfillCommitLog(Path home, int end) throws IOException {
+            CommitLog commitLog = getCommitLog(home);
+            for (int v = commitLog.getCount(); v < end; v++) {
+                Path versionFolder = home.resolve(String.valueOf(v));
+                long time = Files.exists(versionFolder) ? Files.getLastModifiedTime(versionFolder).toMillis() : 0;
+                commitLog.append(v, time, readMessage(home, v));
+            }
+        }
+
+        /**
+         * Versions missing from the file history, in repositories from before it or after a crash,
+         * are filled in by comparing their manifests with the previous ones.
+         */
+        private void appendToFileHistory(Path home, int versionNumber, Map<String, FileHistory.Action> changes) throws IOException {
+            backfillFileHistory(home, versionNumber);
+            getFileHistory(home).append(versionNumber, changes);
+        }
+
+        private void backfillFileHistory(Path home, int end) throws IOException {
+            FileHistory history = getFileHistory(home);
+            for (int v = history.getCount(); v < end; v++) history.append(v, manifestChanges(home, v));
+        }
+
+        /**
+         * Fills in up to {@code limit} missing commit log and file history records each. Returns true
+         * once none is missing, so that nothing needs the manifests or messages of old versions any more.
+         */
+        public boolean completeLogs(Path home, int limit) throws IOException {
+            int latest = getLatestVersion(home);
+            CommitLog commitLog = getCommitLog(home);
+            backfillCommitLog(home, Math.min(latest + 1, commitLog.getCount() + limit));
+            FileHistory history = getFileHistory(home);
+            backfillFileHistory(home, Math.min(latest + 1, history.getCount() + limit));
+            return commitLog.getCount() > latest && history.getCount() > latest;
+        }
+
+        /**
+         * Pruned versions whose folders are still there, found with one listing of the repository
+         * rather than a lookup per pruned version.
+         */
+        public List<Integer> prunedFolders(Path home, BitSet pruned) throws IOException {
+            List<Integer> versions = new ArrayList<>();
+            Metrics.directoryListed();
+            try (Stream<Path> files = Files.list(home)) {
+                for (Path file : files.toList()) {
+                    String name = file.getFileName().toString();
+                    if (name.length() > 9 || !name.chars().allMatch(Character::isDigit)) continue;
+                    if (pruned.get(Integer.parseInt(name))) versions.add(Integer.parseInt(name));
+                }
+            }
+            Collections.sort(versions);
+            return versions;
+        }
+
+        /**
+         * Adds every object the version needs to {@code marked}: its trees, its files and the objects
+         * those are stored in terms of, such as delta bases and chunks.
+         */
+        public void markReachable(Path home, int version, Set<String> marked) throws IOException {
+            ObjectStore objects = getObjects(home);
+            Deque<String> files = new ArrayDeque<>();
+            String root = readTreeRoot(home, version);
+            if (root != null) Tree.mark(objects, root, marked, files);
+            else for (String hash : readManifest(home, version).values()) if (marked.add(hash)) files.add(hash);
+            while (!files.isEmpty()) {
+                for (String reference : objects.references(files.pop()))
+                    if (marked.add(reference)) files.add(reference);
+            }
+        }
+
+        /**
+         * Revisions of a file up to {@code latestVersion}, oldest first. Versions the file history
+         * does not cover yet are found by comparing manifests.
+         */
+        public List<FileHistory.Revision> readFileRevisions(Path home, String name, int latestVersion) throws IOException {
+            String path = trackedName(Paths.get(name));
+            FileHistory history = getFileHistory(home);
+            List<FileHistory.Revision> revisions = new ArrayList<>();
+            for (FileHistory.Revision revision : history.revisions(path))
+                if (revision.version() <= latestVersion) revisions.add(revision);
+            for (int v = history.getCount(); v <= latestVersion; v++) {
+                FileHistory.Action action = manifestChanges(home, v).get(path);
+                if (action != null) revisions.add(new FileHistory.Revision(v, action));
+            }
+            return revisions;
         }
 
-        public Path createNewVersion(Path home, int latestVersion) throws IOException {
-            int newVersion = latestVersion + 1;
-            Path newFolder = home.resolve(String.valueOf(newVersion));
-            Files.createDirectories(newFolder);
-            copyDirectory(home.resolve(String.valueOf(latestVersion)), newFolder);
-            return newFolder;
+        /**
+         * Files whose content differs between the version and the one before it. A commit that did
+         * not change the content does not show up here.
+         */
+        public Map<String, FileHistory.Action> manifestChanges(Path home, int version) throws IOException {
+            Map<String, String> manifest = readManifest(home, version);
+            Map<String, String> previous = version == 0 ? Map.of() : readManifest(home, version - 1);
+            Map<String, FileHistory.Action> changes = new TreeMap<>();
+            manifest.forEach((name, hash) -> {
+                if (!previous.containsKey(name)) changes.put(name, FileHistory.Action.ADDED);
+                else if (!previous.get(name).equals(hash)) changes.put(name, FileHistory.Action.COMMITTED);
+            });
+            for (String name : previous.keySet())
+                if (!manifest.containsKey(name)) changes.put(name, FileHistory.Action.DETACHED);
+            return changes;
         }
 
-        public void finalizeVersion(Path home, Path versionFolder, String message, int versionNumber) throws IOException {
-            Files.writeString(versionFolder.resolve(MESSAGE_FILE_NAME), message);
-            Files.writeString(home.resolve(LATEST_FILE_NAME), String.valueOf(versionNumber));
-            Files.writeString(home.resolve(ACTIVE_FILE_NAME), String.valueOf(versionNumber));
+        /**
+         * Problems in the structure of the repository: header pointers out of range, staging files and
+         * version folders left by a writer that did not finish, messages and manifests that cannot be
+         * read or disagree with the commit log, and objects that versions need but the store lacks.
+         * Meant to run under {@link #lockForChecking}, which leaves those leftovers in place.
+         */
+        public List<String> check(Path home) throws IOException {
+            List<String> problems = new ArrayList<>();
+            RepositoryHeader repositoryHeader = getHeader(home);
+            int latest = repositoryHeader.getLatest();
+            int active = repositoryHeader.getActive();
+            BitSet pruned = readPruned(home);
+            if (latest < 0) problems.add("header: no version is published");
+            else if (active < 0 || active > latest) problems.add("header: active version " + active + " is not between 0 and " + latest);
+            else if (pruned.get(active)) problems.add("header: active version " + active + " was pruned");
+
+            Path tmp = home.resolve(TMP_DIR_NAME);
+            if (Files.isDirectory(tmp)) {
+                Metrics.directoryListed();
+                try (Stream<Path> files = Files.list(tmp)) {
+                    for (Path file : files.sorted().toList()) problems.add("leftover staged version: " + home.relativize(file));
+                }
+            }
+            ObjectStore objects = getObjects(home);
+            for (Path file : objects.tempFiles()) problems.add("leftover temporary object: " + home.relativize(file));
+            for (int v = latest + 1; Files.exists(home.resolve(String.valueOf(v))); v++) {
+                boolean complete = Files.exists(home.resolve(String.valueOf(v)).resolve(MESSAGE_FILE_NAME));
+                problems.add("version " + v + ": " + (complete ? "written but not published" : "half-written"));
+            }
+
+            CommitLog commitLog = getCommitLog(home);
+            Set<String> marked = new HashSet<>();
+            for (int v = 0; v <= latest; v++) {
+                Path versionFolder = home.resolve(String.valueOf(v));
+                if (pruned.get(v)) {
+                    if (Files.exists(versionFolder)) problems.add("version " + v + ": pruned, but its folder remains");
+                    continue;
+                }
+                try {
+                    String message = readMessage(home, v);
+                    Path messageFile = versionFolder.resolve(MESSAGE_FILE_NAME);
+                    if (commitLog.contains(v) && Files.exists(messageFile) && !Files.readString(messageFile).equals(message))
+                        problems.add("version " + v + ": message file differs from the commit log");
+                } catch (NoSuchFileException e) {
+                    problems.add("version " + v + ": message is missing");
+                }
+                try {
+                    markReachable(home, v, marked);
+                } catch (IOException | RuntimeException e) {
+                    problems.add("version " + v + ": manifest cannot be read: " + e);
+                }
+            }
+            for (String hash : new TreeSet<>(marked))
+                if (!objects.contains(hash)) problems.add("object " + hash + ": missing");
+            return problems;
         }
 
-        public void copyDirectory(Path source, Path target) throws IOException {
-            if (!Files.exists(target)) Files.createDirectories(target);
-            File[] entries = source.toFile().listFiles();
-            if (entries == null) return;
-            for (File entry : entries) {
-                if (entry.getName().startsWith(PREFIX + ".")) continue;
-                Path src = entry.toPath(), dst = target.resolve(entry.getName());
-                if (entry.isDirectory()) copyDirectory(src, dst);
-                else Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        /**
+         * Snapshot copies of the versions that are neither pruned nor packed, by their paths below the
+         * repository, mapped to the hashes their manifests give them. Empty with MANIFEST snapshots.
+         * A manifest that cannot be read is left out, {@link #check} reports it.
+         */
+        public Map<String, String> snapshotCopies(Path home) throws IOException {
+            Map<String, String> copies = new TreeMap<>();
+            if (getSnapshotMode(home) == SnapshotMode.MANIFEST) return copies;
+            int latest = getLatestVersion(home);
+            BitSet pruned = readPruned(home);
+            for (int v = 0; v <= latest; v++) {
+                if (pruned.get(v) || !Files.isDirectory(home.resolve(String.valueOf(v)))) continue;
+                try {
+                    for (Map.Entry<String, String> file : readManifest(home, v).entrySet())
+                        copies.put(v + "/" + file.getKey(), file.getValue());
+                } catch (IOException | RuntimeException e) {
+                    // reported by check
+                }
             }
+            return copies;
+        }
+
+        /**
+         * Relative on purpose: Unix socket paths are limited to about a hundred bytes.
+         */
+        public static Path getSocket() {
+            return Paths.get(PREFIX, SOCKET_FILE_NAME);
         }
 
         public String getPrefix() { return PREFIX; }
@@ -139,13 +1118,42 @@ public class Gvt {
                 return;
             }
 
+            FileRepository.SnapshotMode mode = FileRepository.SnapshotMode.MANIFEST;
+            Codec codec = null;
+            FileRepository.Durability durability = null;
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                if ("-snapshot".equals(args[i])) {
+                    try {
+                        mode = FileRepository.SnapshotMode.parse(args[i + 1]);
+                    } catch (IllegalArgumentException e) {
+                        exitHandler.exit(11, "Unknown snapshot mode: " + args[i + 1]);
+                        return;
+                    }
+                } else if ("-compression".equals(args[i])) {
+                    try {
+                        codec = Codec.forName(args[i + 1]);
+                    } catch (IllegalArgumentException e) {
+                        exitHandler.exit(12, "Unknown compression codec: " + args[i + 1]);
+                        return;
+                    }
+                } else if ("-durability".equals(args[i])) {
+                    try {
+                        durability = FileRepository.Durability.parse(args[i + 1]);
+                    } catch (IllegalArgumentException e) {
+                        exitHandler.exit(13, "Unknown durability mode: " + args[i + 1]);
+                        return;
+                    }
+                }
+            }
+
             try {
                 Files.createDirectories(home);
-                Files.writeString(home.resolve(".gvt.latest"), "0");
-                Files.writeString(home.resolve(".gvt.active"), "0");
-                Path v0 = home.resolve("0");
-                Files.createDirectories(v0);
-                Files.writeString(v0.resolve(".gvt.message"), "GVT initialized.");
+                Properties config = new Properties();
+                repo.setSnapshotMode(config, mode);
+                if (codec != null) repo.setCodec(config, codec);
+                if (durability != null) repo.setDurability(config, durability);
+                repo.writeConfig(home, config);
+                repo.finalizeVersion(home, repo.createNewVersion(home, 0, Map.of()), "GVT initialized.", 0, Map.of());
             } catch (IOException e) {
                 e.printStackTrace(System.err);
                 exitHandler.exit(-3, "Underlying system problem. See ERR for details.");
@@ -164,43 +1172,66 @@ public class Gvt {
 
         @Override
         public void execute(String[] args) {
-            if (args.length == 0) {
+            List<String> arguments = fileArguments(args);
+            if (arguments.isEmpty()) {
                 exitHandler.exit(20, "Please specify file to add.");
                 return;
             }
 
-            String filename = args[0];
-            String defaultMessage = "File added successfully. File: " + filename;
-            String userMessage = (args.length > 2 && "-m".equals(args[1])) ? args[2] : null;
-
+            String userMessage = userMessage(args);
             Path home = repo.getHome();
-            Path file = Paths.get(filename).toAbsolutePath();
+            List<String> filenames = arguments;
 
-            try {
-                if (!Files.exists(file)) {
-                    exitHandler.exit(21, "File not found. File: " + filename);
+            try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                filenames = expandDirectories(expandFileArguments(arguments));
+                if (filenames.isEmpty()) {
+                    exitHandler.exit(21, "File not found. " + describeFiles(arguments));
                     return;
                 }
+                for (String filename : filenames) {
+                    if (!Files.exists(Paths.get(filename).toAbsolutePath())) {
+                        exitHandler.exit(21, "File not found. File: " + filename);
+                        return;
+                    }
+                }
 
                 int latestVersion = repo.getLatestVersion(home);
-                Path existing = home.resolve(String.valueOf(latestVersion)).resolve(filename);
-                if (Files.exists(existing)) {
-                    exitHandler.exit(0, "File already added. File: " + filename);
+                Map<String, String> manifest = repo.readManifest(home, latestVersion);
+                List<String> added = filenames.stream().filter(name -> !manifest.containsKey(name)).toList();
+                if (added.isEmpty()) {
+                    exitHandler.exit(0, "File already added. " + describeFiles(filenames));
+                    return;
+                }
+                filenames = added;
+                List<String> paths = new ArrayList<>(manifest.keySet());
+                paths.addAll(added);
+                String conflict = Tree.conflict(paths);
+                if (conflict != null) {
+                    exitHandler.exit(23, "Path is both a file and a directory. File: " + conflict);
                     return;
                 }
 
-                Path newFolder = repo.createNewVersion(home, latestVersion);
-                Path targetFile = newFolder.resolve(filename);
-                Files.copy(file, targetFile);
+                Map<String, String> hashes = repo.storeFiles(home, added, Map.of());
+                manifest.putAll(hashes);
+                Path newFolder = repo.createNewVersion(home, latestVersion + 1, manifest);
 
-                String commitMessage = (userMessage != null) ? userMessage : defaultMessage;
-                repo.finalizeVersion(home, newFolder, commitMessage, latestVersion + 1);
+                String commitMessage = (userMessage != null) ? userMessage : defaultMessage(filenames);
+                repo.finalizeVersion(home, newFolder, commitMessage, latestVersion + 1,
+                        actions(added, FileHistory.Action.ADDED));
+
+                WorkingTreeIndex index = repo.getIndex(home);
+                for (String filename : added) index.update(filename, Paths.get(filename), hashes.get(filename));
+                index.save();
 
             } catch (IOException e) {
                 e.printStackTrace(System.err);
-                exitHandler.exit(22, "File cannot be added. See ERR for details. File: " + filename);
+                exitHandler.exit(22, "File cannot be added. See ERR for details. " + describeFiles(filenames));
             }
-            exitHandler.exit(0, defaultMessage);
+            exitHandler.exit(0, defaultMessage(filenames));
+        }
+
+        private static String defaultMessage(List<String> filenames) {
+            return (filenames.size() == 1 ? "File added" : "Files added") + " successfully. " + describeFiles(filenames);
         }
     }
 
@@ -225,20 +1256,25 @@ public class Gvt {
 
             Path home = repo.getHome();
 
-            try {
+            try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
                 int latestVersion = repo.getLatestVersion(home);
-                Path latestFolder = home.resolve(String.valueOf(latestVersion));
-                Path existing = latestFolder.resolve(filename);
-                if (!Files.exists(existing)) {
+                Map<String, String> manifest = repo.readManifest(home, latestVersion);
+                List<String> detached = trackedFiles(manifest, trackedName(Paths.get(filename)));
+                if (detached.isEmpty()) {
                     exitHandler.exit(0, "File is not added to gvt. File: " + filename);
                     return;
                 }
+                manifest.keySet().removeAll(detached);
 
-                Path newFolder = repo.createNewVersion(home, latestVersion);
-                Files.deleteIfExists(newFolder.resolve(filename));
+                Path newFolder = repo.createNewVersion(home, latestVersion + 1, manifest);
 
                 String commitMessage = (userMessage != null) ? userMessage : defaultMessage;
-                repo.finalizeVersion(home, newFolder, commitMessage, latestVersion + 1);
+                repo.finalizeVersion(home, newFolder, commitMessage, latestVersion + 1,
+                        actions(detached, FileHistory.Action.DETACHED));
+
+                WorkingTreeIndex index = repo.getIndex(home);
+                for (String name : detached) index.remove(name);
+                index.save();
 
             } catch (IOException e) {
                 e.printStackTrace(System.err);
@@ -248,6 +1284,12 @@ public class Gvt {
         }
     }
 
+    /**
+     * Writes the files of a version into the working tree and makes it the active version. With
+     * {@code -- <files...>} only those files, or the files below those directories, are written and
+     * the active version stays as it is. A full checkout writes only the paths matching the sparse
+     * patterns, when there are any. Files whose content already matches are not rewritten.
+     */
     static class CheckoutCommand implements GvtCommand {
         private final FileRepository repo;
         private final ExitHandler exitHandler;
@@ -264,24 +1306,66 @@ public class Gvt {
             }
 
             int version = Integer.parseInt(args[0]);
+            List<String> paths = args.length > 1 && "--".equals(args[1]) ? List.of(args).subList(2, args.length) : null;
+            if (paths != null && paths.isEmpty()) {
+                exitHandler.exit(20, "Please specify file to checkout.");
+                return;
+            }
             Path home = repo.getHome();
 
-            try {
+            try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
                 int latest = repo.getLatestVersion(home);
                 if (version < 0 || version > latest) {
                     exitHandler.exit(60, "Invalid version number: " + version);
                     return;
                 }
+                if (repo.isPruned(home, version)) {
+                    exitHandler.exit(60, "Version was pruned: " + version);
+                    return;
+                }
 
-                Path wantedFolder = home.resolve(String.valueOf(version));
-                repo.copyDirectory(wantedFolder, Paths.get(""));
-                repo.setActiveVersion(home, version);
+                Map<String, String> manifest;
+                if (paths == null) {
+                    manifest = repo.readManifest(home, version);
+                    Predicate<String> sparse = repo.readSparsePatterns(home);
+                    if (sparse != null) manifest.keySet().removeIf(sparse.negate());
+                } else {
+                    manifest = new TreeMap<>();
+                    for (String path : paths) {
+                        Map<String, String> files = repo.readFiles(home, version, path);
+                        if (files.isEmpty()) {
+                            exitHandler.exit(0, "File is not added to gvt. File: " + path);
+                            return;
+                        }
+                        manifest.putAll(files);
+                    }
+                }
+
+                ObjectStore objects = repo.getObjects(home);
+                WorkingTreeIndex index = repo.getIndex(home);
+                List<String> stale = new ArrayList<>();
+                for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                    if (!entry.getValue().equals(index.cachedHash(entry.getKey(), Paths.get(entry.getKey()))))
+                        stale.add(entry.getKey());
+                }
+                try (Metrics.Phase phase = Metrics.phase("restore")) {
+                    repo.getCopyEngine(home).forEach(stale, name -> {
+                        Path target = Paths.get(name);
+                        if (target.getParent() != null) Files.createDirectories(target.getParent());
+                        if (!objects.matches(manifest.get(name), target)) objects.restore(manifest.get(name), target);
+                        return null;
+                    });
+                }
+                for (String name : stale) index.update(name, Paths.get(name), manifest.get(name));
+                index.save();
+                if (paths == null) repo.setActiveVersion(home, version);
 
             } catch (IOException e) {
                 e.printStackTrace(System.err);
                 exitHandler.exit(9923, "Checkout cannot be completed. See Err for details");
             }
-            exitHandler.exit(0, "Checkout successful for version: " + version);
+            exitHandler.exit(0, "Checkout successful for version: " + version
+                    + (paths == null ? "" : ". " + describeFiles(paths)));
         }
     }
 
@@ -295,49 +1379,94 @@ public class Gvt {
 
         @Override
         public void execute(String[] args) {
-            if (args.length == 0) {
+            List<String> arguments = fileArguments(args);
+            if (arguments.isEmpty()) {
                 exitHandler.exit(50, "Please specify file to commit.");
                 return;
             }
 
-            String filename = args[0];
-            String defaultMessage = "File committed successfully. File: " + filename;
-            String userMessage = (args.length > 2 && "-m".equals(args[1])) ? args[2] : null;
-
+            String userMessage = userMessage(args);
             Path home = repo.getHome();
-            Path file = Paths.get(filename).toAbsolutePath();
-
-            try {
-                if (!Files.exists(file)) {
-                    exitHandler.exit(51, "File not found. File: " + filename);
-                    return;
+            List<String> filenames = arguments;
+
+            try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                filenames = expandFileArguments(arguments);
+                for (String filename : filenames) {
+                    if (!Files.exists(Paths.get(filename).toAbsolutePath())) {
+                        exitHandler.exit(51, "File not found. File: " + filename);
+                        return;
+                    }
                 }
 
                 int latestVersion = repo.getLatestVersion(home);
-                Path latestFolder = home.resolve(String.valueOf(latestVersion));
-                Path existing = latestFolder.resolve(filename);
-                if (!Files.exists(existing)) {
-                    exitHandler.exit(0, "File is not added to gvt. File: " + filename);
-                    return;
+                Map<String, String> manifest = repo.readManifest(home, latestVersion);
+                List<String> expanded = new ArrayList<>();
+                for (String filename : filenames) {
+                    List<String> tracked = !Files.isDirectory(Paths.get(filename)) ? List.of()
+                            : trackedFiles(manifest, filename).stream().filter(name -> Files.exists(Paths.get(name))).toList();
+                    if (tracked.isEmpty()) expanded.add(filename);
+                    else expanded.addAll(tracked);
+                }
+                filenames = expanded;
+                for (String filename : filenames) {
+                    if (!manifest.containsKey(filename)) {
+                        exitHandler.exit(0, "File is not added to gvt. File: " + filename);
+                        return;
+                    }
                 }
 
-                Path newFolder = repo.createNewVersion(home, latestVersion);
-                Files.deleteIfExists(newFolder.resolve(filename));
-                Files.copy(file, newFolder.resolve(filename));
+                String conflict = Tree.conflict(manifest.keySet());
+                if (conflict != null) {
+                    exitHandler.exit(53, "Path is both a file and a directory. File: " + conflict);
+                    return;
+                }
 
-                String commitMessage = (userMessage != null) ? userMessage : defaultMessage;
-                repo.finalizeVersion(home, newFolder, commitMessage, latestVersion + 1);
+                ObjectStore objects = repo.getObjects(home);
+                WorkingTreeIndex index = repo.getIndex(home);
+                Map<String, String> previous = new HashMap<>();
+                for (String filename : filenames) previous.put(filename, manifest.get(filename));
+                List<String> changed = new ArrayList<>();
+                for (String filename : filenames) {
+                    String hash = index.cachedHash(filename, Paths.get(filename));
+                    if (hash == null || !objects.contains(hash)) changed.add(filename);
+                    else manifest.put(filename, hash);
+                }
+                Map<String, String> hashes = repo.storeFiles(home, changed, manifest);
+                for (String filename : changed) index.update(filename, Paths.get(filename), hashes.get(filename));
+                manifest.putAll(hashes);
+                Path newFolder = repo.createNewVersion(home, latestVersion + 1, manifest);
+
+                // like manifestChanges, a file whose content did not change gets no revision
+                List<String> committed = new ArrayList<>();
+                for (String filename : filenames)
+                    if (!manifest.get(filename).equals(previous.get(filename))) committed.add(filename);
+                String commitMessage = (userMessage != null) ? userMessage : defaultMessage(filenames);
+                repo.finalizeVersion(home, newFolder, commitMessage, latestVersion + 1,
+                        actions(committed, FileHistory.Action.COMMITTED));
+                index.save();
 
             } catch (IOException e) {
                 e.printStackTrace(System.err);
-                exitHandler.exit(52, "File cannot be committed. See ERR for details. File: " + filename);
+                exitHandler.exit(52, "File cannot be committed. See ERR for details. " + describeFiles(filenames));
             }
 
-            exitHandler.exit(0, defaultMessage);
+            exitHandler.exit(0, defaultMessage(filenames));
+        }
+
+        private static String defaultMessage(List<String> filenames) {
+            return (filenames.size() == 1 ? "File committed" : "Files committed") + " successfully. " + describeFiles(filenames);
         }
     }
 
+    /**
+     * Prints versions newest first, optionally only those whose message contains {@code -grep} text,
+     * that added, committed or detached the {@code -file} file or that lie within {@code -since} and {@code -until}.
+     * Versions are read in batches, each evaluated in parallel, and every finished batch is printed
+     * before the next one is read, so output starts at once and memory does not grow with history.
+     */
     static class HistoryCommand implements GvtCommand {
+        private static final int BATCH_SIZE = 1024;
+
         private final FileRepository repo;
         private final ExitHandler exitHandler;
         public HistoryCommand(FileRepository repo, ExitHandler exitHandler) {
@@ -347,25 +1476,59 @@ public class Gvt {
 
         @Override
         public void execute(String[] args) {
-            int quantity = -1;
-            if (args.length >= 2 && "-last".equals(args[0])) {
-                try { quantity = Integer.parseInt(args[1]) - 1; } catch (NumberFormatException ignored) {}
+            int quantity = 0;
+            String grep = null;
+            String file = null;
+            int since = 0;
+            int until = Integer.MAX_VALUE;
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "-last" -> {
+                        try { quantity = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                    }
+                    case "-grep" -> grep = value;
+                    case "-file" -> file = value;
+                    case "-since" -> {
+                        try { since = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                    }
+                    case "-until" -> {
+                        try { until = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                    }
+                    default -> { }
+                }
             }
+            boolean filtered = grep != null || file != null;
+            int remaining = quantity == 0 ? Integer.MAX_VALUE : quantity;
 
             StringBuilder res = new StringBuilder();
             try {
                 Path home = repo.getHome();
                 int latestVersion = repo.getLatestVersion(home);
-                if (quantity == -1) quantity = latestVersion;
+                CommitLog commitLog = repo.getCommitLog(home);
+                Set<Integer> touching = new HashSet<>();
+                if (file != null) {
+                    for (FileHistory.Revision revision : repo.readFileRevisions(home, file, latestVersion))
+                        touching.add(revision.version());
+                }
 
-                for (int v = latestVersion; v >= latestVersion - quantity && v >= 0; v--) {
-                    Path versionFolder = home.resolve(String.valueOf(v));
-                    Path messageFile = versionFolder.resolve(".gvt.message");
-                    String message = Files.readString(messageFile).split("\n")[0];
-                    res.append(v).append(": ").append(message).append("\n");
+                for (int top = Math.min(until, latestVersion); top >= Math.max(since, 0) && remaining > 0; ) {
+                    int count = Math.min(top - Math.max(since, 0) + 1, filtered ? BATCH_SIZE : Math.min(BATCH_SIZE, remaining));
+                    String[] lines = describe(home, commitLog, top, count, grep, file == null ? null : touching);
+                    for (int i = 0; i < count && remaining > 0; i++) {
+                        if (lines[i] == null) continue;
+                        res.append(top - i).append(": ").append(lines[i]).append("\n");
+                        remaining--;
+                    }
+                    top -= count;
+                    if (top >= Math.max(since, 0) && remaining > 0 && !res.isEmpty()) {
+                        System.out.print(res);
+                        System.out.flush();
+                        res.setLength(0);
+                    }
                 }
 
-            } catch (IOException e) {
+            } catch (IOException | UncheckedIOException e) {
                 e.printStackTrace(System.err);
                 exitHandler.exit(9952, "History cannot be read. See ERR for details.");
                 return;
@@ -373,6 +1536,520 @@ public class Gvt {
 
             exitHandler.exit(0, res.toString());
         }
+
+        /**
+         * First lines of versions {@code top} down to {@code top - count + 1}, or null for those the
+         * filters reject.
+         */
+        private String[] describe(Path home, CommitLog commitLog, int top, int count, String grep, Set<Integer> touching) throws IOException {
+            int logged = commitLog.getCount();
+            String[] lines = new String[count];
+            IntStream.range(0, count).parallel().forEach(i -> {
+                int v = top - i;
+                try {
+                    if (grep != null) {
+                        String message = v < logged ? commitLog.readMessage(v) : repo.readMessage(home, v);
+                        if (!message.contains(grep)) return;
+                    }
+                    if (touching != null && !touching.contains(v)) return;
+                    lines[i] = v < logged ? commitLog.readFirstLine(v) : repo.readFirstLine(home, v);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return lines;
+        }
+    }
+
+    static class LogCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public LogCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            if (args.length == 0) {
+                exitHandler.exit(70, "Please specify file to log.");
+                return;
+            }
+
+            String filename = args[0];
+            Path home = repo.getHome();
+
+            StringBuilder res = new StringBuilder();
+            try {
+                List<FileHistory.Revision> revisions = repo.readFileRevisions(home, filename, repo.getLatestVersion(home));
+                if (revisions.isEmpty()) {
+                    exitHandler.exit(0, "File is not added to gvt. File: " + filename);
+                    return;
+                }
+                for (int i = revisions.size() - 1; i >= 0; i--) {
+                    FileHistory.Revision revision = revisions.get(i);
+                    res.append(revision.version()).append(": ").append(revision.action().name().toLowerCase())
+                            .append(": ").append(repo.readFirstLine(home, revision.version())).append("\n");
+                }
+
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9932, "Log cannot be read. See ERR for details.");
+                return;
+            }
+
+            exitHandler.exit(0, res.toString());
+        }
+    }
+
+    /**
+     * Prints the differences between two versions as a unified diff without context lines. Files with
+     * the same hash in both versions are skipped without being read; the others are streamed through
+     * {@link LineDiff}, and the output is printed as it grows instead of being collected first.
+     */
+    static class DiffCommand implements GvtCommand {
+        private static final int FLUSH_SIZE = 64 * 1024;
+        private static final int BINARY_PROBE_SIZE = 8 * 1024;
+
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public DiffCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            if (args.length < 2) {
+                exitHandler.exit(90, "Please specify versions to diff.");
+                return;
+            }
+
+            int[] versions = new int[2];
+            for (int i = 0; i < versions.length; i++) {
+                try {
+                    versions[i] = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    exitHandler.exit(60, "Invalid version number: " + args[i]);
+                    return;
+                }
+            }
+            int from = versions[0];
+            int to = versions[1];
+            String filename = args.length > 2 ? args[2] : null;
+            Path home = repo.getHome();
+
+            StringWriter pending = new StringWriter();
+            try {
+                int latest = repo.getLatestVersion(home);
+                for (int version : versions) {
+                    if (version < 0 || version > latest) {
+                        exitHandler.exit(60, "Invalid version number: " + version);
+                        return;
+                    }
+                    if (repo.isPruned(home, version)) {
+                        exitHandler.exit(60, "Version was pruned: " + version);
+                        return;
+                    }
+                }
+
+                ObjectStore objects = repo.getObjects(home);
+                Map<String, Tree.Change> changes = changes(home, objects, from, to);
+                if (filename != null) {
+                    String path = trackedName(Paths.get(filename));
+                    changes.keySet().removeIf(name -> !name.equals(path) && !name.startsWith(path + "/"));
+                    if (changes.isEmpty()) {
+                        Map<String, String> tracked = new TreeMap<>(repo.readManifest(home, from));
+                        tracked.putAll(repo.readManifest(home, to));
+                        if (trackedFiles(tracked, path).isEmpty()) {
+                            exitHandler.exit(0, "File is not added to gvt. File: " + filename);
+                            return;
+                        }
+                    }
+                }
+
+                Writer out = new FilterWriter(pending) {
+                    @Override
+                    public void write(String text, int offset, int length) throws IOException {
+                        super.write(text, offset, length);
+                        if (pending.getBuffer().length() >= FLUSH_SIZE) {
+                            System.out.print(pending);
+                            System.out.flush();
+                            pending.getBuffer().setLength(0);
+                        }
+                    }
+                };
+                for (Map.Entry<String, Tree.Change> change : changes.entrySet()) {
+                    String name = change.getKey();
+                    String oldHash = change.getValue().oldHash();
+                    String newHash = change.getValue().newHash();
+                    String oldLabel = oldHash == null ? "/dev/null" : from + "/" + name;
+                    String newLabel = newHash == null ? "/dev/null" : to + "/" + name;
+                    try (BufferedInputStream oldIn = open(objects, oldHash); BufferedInputStream newIn = open(objects, newHash)) {
+                        if (isBinary(oldIn) || isBinary(newIn)) {
+                            out.write("Binary files " + oldLabel + " and " + newLabel + " differ\n");
+                            continue;
+                        }
+                        out.write("--- " + oldLabel + "\n+++ " + newLabel + "\n");
+                        LineDiff.diff(new BufferedReader(new InputStreamReader(oldIn)),
+                                new BufferedReader(new InputStreamReader(newIn)), out);
+                    }
+                }
+                if (changes.isEmpty()) out.write("No differences.");
+
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9912, "Diff cannot be computed. See ERR for details.");
+                return;
+            }
+
+            exitHandler.exit(0, pending.toString());
+        }
+
+        /**
+         * Changed files between two versions. Versions with trees are compared tree by tree, skipping
+         * equal subtrees; older ones fall back to comparing whole manifests.
+         */
+        private Map<String, Tree.Change> changes(Path home, ObjectStore objects, int from, int to) throws IOException {
+            String oldRoot = repo.readTreeRoot(home, from);
+            String newRoot = repo.readTreeRoot(home, to);
+            if (oldRoot != null && newRoot != null) return Tree.diff(objects, oldRoot, newRoot);
+
+            Map<String, String> before = repo.readManifest(home, from);
+            Map<String, String> after = repo.readManifest(home, to);
+            Set<String> names = new TreeSet<>(before.keySet());
+            names.addAll(after.keySet());
+            Map<String, Tree.Change> changes = new TreeMap<>();
+            for (String name : names) {
+                if (!Objects.equals(before.get(name), after.get(name)))
+                    changes.put(name, new Tree.Change(before.get(name), after.get(name)));
+            }
+            return changes;
+        }
+
+        private static BufferedInputStream open(ObjectStore objects, String hash) throws IOException {
+            return new BufferedInputStream(hash == null ? InputStream.nullInputStream() : objects.open(hash));
+        }
+
+        private static boolean isBinary(BufferedInputStream in) throws IOException {
+            in.mark(BINARY_PROBE_SIZE);
+            try {
+                byte[] probe = in.readNBytes(BINARY_PROBE_SIZE);
+                for (byte b : probe) if (b == 0) return true;
+                return false;
+            } finally {
+                in.reset();
+            }
+        }
+    }
+
+    /**
+     * Streams one file of a version, given as {@code <version>:<file>}, to standard output without
+     * touching the working tree. The content is written as is, without the line end other commands
+     * print after their message.
+     */
+    static class ShowCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public ShowCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            int separator = args.length == 0 ? -1 : args[0].indexOf(':');
+            if (separator < 0) {
+                exitHandler.exit(100, "Please specify version and file to show.");
+                return;
+            }
+
+            int version;
+            try {
+                version = Integer.parseInt(args[0].substring(0, separator));
+            } catch (NumberFormatException e) {
+                exitHandler.exit(60, "Invalid version number: " + args[0].substring(0, separator));
+                return;
+            }
+            String filename = args[0].substring(separator + 1);
+            Path home = repo.getHome();
+
+            try {
+                if (version < 0 || version > repo.getLatestVersion(home)) {
+                    exitHandler.exit(60, "Invalid version number: " + version);
+                    return;
+                }
+                if (repo.isPruned(home, version)) {
+                    exitHandler.exit(60, "Version was pruned: " + version);
+                    return;
+                }
+                String hash = repo.readFileHash(home, version, filename);
+                if (hash == null) {
+                    exitHandler.exit(0, "File is not added to gvt. File: " + filename);
+                    return;
+                }
+                try (InputStream in = repo.getObjects(home).open(hash)) {
+                    in.transferTo(System.out);
+                }
+                System.out.flush();
+
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9902, "File cannot be shown. See ERR for details.");
+            }
+        }
+    }
+
+    /**
+     * Lists tags, or with a name points a tag at the given version, the active one by default.
+     * Tagged versions are never pruned.
+     */
+    static class TagCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public TagCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            Path home = repo.getHome();
+
+            try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                Properties tags = repo.readTags(home);
+                if (args.length == 0) {
+                    StringBuilder res = new StringBuilder();
+                    for (String name : new TreeSet<>(tags.stringPropertyNames()))
+                        res.append(name).append(": ").append(tags.getProperty(name)).append("\n");
+                    exitHandler.exit(0, res.toString());
+                    return;
+                }
+
+                int version;
+                try {
+                    version = args.length > 1 ? Integer.parseInt(args[1]) : repo.getActiveVersion(home);
+                } catch (NumberFormatException e) {
+                    exitHandler.exit(60, "Invalid version number: " + args[1]);
+                    return;
+                }
+                if (version < 0 || version > repo.getLatestVersion(home)) {
+                    exitHandler.exit(60, "Invalid version number: " + version);
+                    return;
+                }
+                if (repo.isPruned(home, version)) {
+                    exitHandler.exit(60, "Version was pruned: " + version);
+                    return;
+                }
+                tags.setProperty(args[0], String.valueOf(version));
+                repo.writeTags(home, tags);
+                exitHandler.exit(0, "Version tagged successfully. Tag: " + args[0] + ", version: " + version);
+
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9904, "Tag cannot be written. See ERR for details.");
+            }
+        }
+    }
+
+    /**
+     * Prunes the versions the retention options do not keep, see {@link Retention}, then deletes the
+     * objects no remaining version needs. Pruned versions lose their files but keep their messages in
+     * the commit log, so history and version still show them. Missing log records are filled in and
+     * pruned folders deleted in batches, and objects are swept a shard at a time, each step under the
+     * write lock and the sweep after marking what versions published in the meantime need, so other
+     * commands run between the steps instead of waiting for the whole collection.
+     */
+    static class GcCommand implements GvtCommand {
+        private static final int LOG_BATCH = 1024;
+        private static final int DELETE_BATCH = 64;
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public GcCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            int last = 0;
+            int daily = 0;
+            int monthly = 0;
+            boolean tagged = false;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-tagged" -> tagged = true;
+                    case "-last", "-daily", "-monthly" -> {
+                        int count;
+                        try {
+                            count = Integer.parseInt(args[i + 1]);
+                        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                            count = -1;
+                        }
+                        if (count < 0) {
+                            exitHandler.exit(110, "Invalid retention count: " + args[i]);
+                            return;
+                        }
+                        if ("-last".equals(args[i])) last = count;
+                        else if ("-daily".equals(args[i])) daily = count;
+                        else monthly = count;
+                        i++;
+                    }
+                    default -> {
+                        exitHandler.exit(110, "Unknown gc option: " + args[i]);
+                        return;
+                    }
+                }
+            }
+            Retention retention = new Retention(last, daily, monthly, tagged);
+            Path home = repo.getHome();
+
+            try {
+                boolean complete;
+                do {
+                    try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                        complete = repo.completeLogs(home, LOG_BATCH);
+                    }
+                } while (!complete);
+
+                BitSet pruned;
+                int newlyPruned = 0;
+                int markedUpTo;
+                try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                    // versions published since the logs were completed filled in their own records
+                    markedUpTo = repo.getLatestVersion(home);
+                    pruned = repo.readPruned(home);
+                    if (retention.prunes()) {
+                        CommitLog commitLog = repo.getCommitLog(home);
+                        long[] times = new long[markedUpTo + 1];
+                        for (int v = 0; v <= markedUpTo; v++) times[v] = commitLog.readTime(v);
+                        List<Integer> tags = new ArrayList<>();
+                        for (Object tag : repo.readTags(home).values()) tags.add(Integer.parseInt((String) tag));
+                        BitSet keep = retention.keep(times, repo.getActiveVersion(home), tags, ZoneId.systemDefault());
+                        for (int v = 0; v <= markedUpTo; v++) {
+                            if (keep.get(v) || pruned.get(v)) continue;
+                            pruned.set(v);
+                            newlyPruned++;
+                        }
+                        repo.writePruned(home, pruned);
+                    }
+                }
+                // pruned versions are never read again, so their folders can go in any order
+                List<Integer> folders = repo.prunedFolders(home, pruned);
+                for (int from = 0; from < folders.size(); from += DELETE_BATCH) {
+                    try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                        for (int v : folders.subList(from, Math.min(folders.size(), from + DELETE_BATCH)))
+                            repo.deleteVersionFolder(home, v);
+                    }
+                }
+
+                Set<String> marked = new HashSet<>();
+                for (int v = 0; v <= markedUpTo; v++) if (!pruned.get(v)) repo.markReachable(home, v, marked);
+
+                int objects = 0;
+                long bytes = 0;
+                for (String shard : repo.getObjects(home).shards()) {
+                    try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                        int latest = repo.getLatestVersion(home);
+                        for (int v = markedUpTo + 1; v <= latest; v++) repo.markReachable(home, v, marked);
+                        markedUpTo = latest;
+                        ObjectStore.Swept swept = repo.getObjects(home).sweep(shard, marked::contains);
+                        repo.getWritableHeader(home).addStoredBytes(-swept.bytes());
+                        objects += swept.objects();
+                        bytes += swept.bytes();
+                    }
+                }
+
+                exitHandler.exit(0, "Garbage collected. Versions pruned: " + newlyPruned
+                        + ", objects removed: " + objects + ", bytes freed: " + bytes);
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9903, "Garbage cannot be collected. See ERR for details.");
+            }
+        }
+    }
+
+    /**
+     * Checks the structure of the repository under the write lock, see {@link FileRepository#check},
+     * then reads every object back and compares its content with its hash, and with COPY or LINK
+     * snapshots every copy in a version folder with the hash its manifest gives. Objects and versions
+     * never change once written, so they are hashed without the lock, in parallel on the copy engine;
+     * an object gc removes meanwhile is skipped, and so is a copy of a version it prunes. Ends with the
+     * number of bytes hashed and the throughput.
+     */
+    static class FsckCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public FsckCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            Path home = repo.getHome();
+
+            try {
+                List<String> problems;
+                try (FileRepository.WriteLock ignored = repo.lockForChecking(home)) {
+                    problems = repo.check(home);
+                }
+
+                ObjectStore objects = repo.getObjects(home);
+                List<String> hashes = objects.list();
+                Map<String, String> copies = repo.snapshotCopies(home);
+                long start = System.nanoTime();
+                Map<String, Long> sizes;
+                Map<String, String> copyHashes;
+                try (Metrics.Phase ignored = Metrics.phase("verify")) {
+                    CopyEngine engine = repo.getCopyEngine(home);
+                    sizes = engine.map(hashes, hash -> {
+                        try {
+                            return objects.verify(hash);
+                        } catch (IOException | RuntimeException e) {
+                            return objects.contains(hash) ? -1L : 0L;
+                        }
+                    });
+                    copyHashes = engine.map(new ArrayList<>(copies.keySet()), name -> {
+                        try {
+                            Path copy = home.resolve(name);
+                            return Files.size(copy) + " " + ObjectStore.hash(copy);
+                        } catch (NoSuchFileException e) {
+                            return "";
+                        }
+                    });
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long bytes = 0;
+                for (Map.Entry<String, Long> size : sizes.entrySet()) {
+                    if (size.getValue() < 0) problems.add("object " + size.getKey() + ": content does not match its hash");
+                    else bytes += size.getValue();
+                }
+                for (Map.Entry<String, String> copy : copies.entrySet()) {
+                    String[] sizeAndHash = copyHashes.get(copy.getKey()).split(" ");
+                    if (sizeAndHash.length < 2) {
+                        int version = Integer.parseInt(copy.getKey().substring(0, copy.getKey().indexOf('/')));
+                        if (!repo.isPruned(home, version)) problems.add("snapshot copy " + copy.getKey() + ": missing");
+                    } else {
+                        bytes += Long.parseLong(sizeAndHash[0]);
+                        if (!sizeAndHash[1].equals(copy.getValue()))
+                            problems.add("snapshot copy " + copy.getKey() + ": content does not match its hash");
+                    }
+                }
+
+                String report = String.format(Locale.ROOT, "Objects verified: %d%s, %d bytes in %.1f s (%.1f MB/s)",
+                        hashes.size(), copies.isEmpty() ? "" : ", snapshot copies verified: " + copies.size(),
+                        bytes, seconds, bytes / 1e6 / Math.max(seconds, 1e-3));
+                if (problems.isEmpty()) {
+                    exitHandler.exit(0, report + "\nNo problems found.");
+                } else {
+                    exitHandler.exit(130, String.join("\n", problems) + "\n" + report + "\nProblems found: " + problems.size());
+                }
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9905, "Repository cannot be checked. See ERR for details.");
+            }
+        }
     }
 
     static class VersionCommand implements GvtCommand {
@@ -403,8 +2080,7 @@ public class Gvt {
                     return;
                 }
 
-                Path messageFile = home.resolve(String.valueOf(version)).resolve(".gvt.message");
-                String message = Files.readString(messageFile);
+                String message = repo.readMessage(home, version);
                 exitHandler.exit(0, "Version: " + version + "\n" + message);
 
             } catch (IOException e) {
@@ -413,4 +2089,154 @@ public class Gvt {
             }
         }
     }
+
+    static class PackCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public PackCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            Path home = repo.getHome();
+
+            try (FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                VersionPack pack = repo.getPack(home);
+                int from = pack.getPackedCount();
+                int to = repo.getLatestVersion(home);
+                if (from >= to) {
+                    exitHandler.exit(0, "Nothing to pack.");
+                    return;
+                }
+
+                String[] messages = new String[to - from];
+                String[] manifests = new String[to - from];
+                BitSet pruned = repo.readPruned(home);
+                for (int v = from; v < to; v++) {
+                    messages[v - from] = repo.readMessage(home, v);
+                    manifests[v - from] = pruned.get(v) ? "" : repo.readManifestText(home, v);
+                }
+                pack.append(messages, manifests);
+                for (int v = from; v < to; v++) repo.deleteVersionFolder(home, v);
+
+                exitHandler.exit(0, "Versions packed successfully: " + from + "-" + (to - 1));
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9992, "Versions cannot be packed. See ERR for details.");
+            }
+        }
+    }
+
+    static class StatusCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public StatusCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            Path home = repo.getHome();
+
+            StringBuilder res = new StringBuilder();
+            try {
+                int activeVersion = repo.getActiveVersion(home);
+                WorkingTreeIndex index = repo.getIndex(home);
+                res.append("Version: ").append(activeVersion).append("\n");
+                Map<String, String> manifest = repo.readManifest(home, activeVersion);
+                try (Metrics.Phase ignored = Metrics.phase("scan")) {
+                    for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                        Path file = Paths.get(entry.getKey());
+                        String state;
+                        if (!Files.isRegularFile(file)) {
+                            state = "missing";
+                        } else {
+                            String hash = index.cachedHash(entry.getKey(), file);
+                            if (hash == null) {
+                                hash = ObjectStore.hash(file);
+                                index.update(entry.getKey(), file, hash);
+                            }
+                            state = hash.equals(entry.getValue()) ? "unchanged" : "modified";
+                        }
+                        res.append(state).append(": ").append(entry.getKey()).append("\n");
+                    }
+                }
+                // the index is only a cache, so status leaves it to a writer running at the same time
+                try (FileRepository.WriteLock lock = repo.tryLockForChecking(home)) {
+                    if (lock != null) index.save();
+                }
+
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9962, "Status cannot be read. See ERR for details.");
+                return;
+            }
+
+            exitHandler.exit(0, res.toString());
+        }
+    }
+
+    static class StatsCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public StatsCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            Path home = repo.getHome();
+
+            RepositoryHeader header;
+            int pruned;
+            try {
+                header = repo.getHeader(home);
+                pruned = repo.readPruned(home).cardinality();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9942, "Stats cannot be read. See ERR for details.");
+                return;
+            }
+
+            // the header counts every version created, gc does not give any back
+            exitHandler.exit(0, "Latest version: " + header.getLatest() + "\n"
+                    + "Active version: " + header.getActive() + "\n"
+                    + "Versions: " + (header.getVersionCount() - pruned) + "\n"
+                    + "Files: " + header.getFileCount() + "\n"
+                    + "Stored bytes: " + header.getStoredBytes());
+        }
+    }
+
+    static class ServeCommand implements GvtCommand {
+        private final FileRepository repo;
+        private final ExitHandler exitHandler;
+        public ServeCommand(FileRepository repo, ExitHandler exitHandler) {
+            this.repo = repo;
+            this.exitHandler = exitHandler;
+        }
+
+        @Override
+        public void execute(String[] args) {
+            repo.getHome();
+            GvtServer server = new GvtServer(FileRepository.getSocket());
+            if (server.isRunning()) {
+                exitHandler.exit(80, "Server is already running.");
+                return;
+            }
+
+            try {
+                System.out.println("Serving current directory. Socket: " + FileRepository.getSocket());
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                exitHandler.exit(9982, "Server cannot be started. See ERR for details.");
+                return;
+            }
+            exitHandler.exit(0, "Server stopped.");
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Serves gvt commands over a Unix domain socket from one warm JVM. Requests are handled one at a time,
+ * in the directory the server was started in, by a single {@link Gvt} whose exit handler unwinds the
+ * command instead of stopping the JVM.
+ * <p>
+ * Request: argument count, then each argument as a length-prefixed UTF-8 string, then the length of
+ * the forwarded standard input followed by its bytes. Response: a sequence of frames, each a one-byte
+ * type followed by a big-endian 32-bit integer. Output frames, {@link #STDOUT} and {@link #STDERR},
+ * carry a length followed by that many bytes and are sent while the command runs, so the client prints
+ * long output as it is produced and the server never holds more than a buffer of it. The last frame,
+ * {@link #EXIT}, carries the exit code. All other lengths and counts are big-endian 32-bit integers.
+ */
+class GvtServer {
+    static final int EXIT = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    static class ExitSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+
+        ExitSignal(int code) {
+            super(null, null, false, false);
+            this.code = code;
+        }
+    }
+
+    static class ServerExitHandler extends ExitHandler {
+        @Override
+        void exitOperation(int code) {
+            throw new ExitSignal(code);
+        }
+    }
+
+    /**
+     * Sends everything written to it as frames of one type. Standard output and standard error share
+     * the connection, so frames are written whole under its lock.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream response;
+        private final int type;
+
+        FrameOutputStream(DataOutputStream response, int type) {
+            this.response = response;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            synchronized (response) {
+                response.writeByte(type);
+                response.writeInt(length);
+                response.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+    }
+
+    private final Path socket;
+
+    GvtServer(Path socket) {
+        this.socket = socket;
+    }
+
+    public boolean isRunning() {
+        if (!Files.exists(socket)) return false;
+        try (SocketChannel ignored = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void serve() throws IOException {
+        Gvt gvt = new Gvt(new ServerExitHandler());
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                    // the next server replaces a stale socket anyway
+                }
+            }));
+            while (server.isOpen()) {
+                try (SocketChannel client = server.accept()) {
+                    handle(gvt, client);
+                } catch (IOException e) {
+                    // a client that went away must not stop the server
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+    private void handle(Gvt gvt, SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) args[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+        byte[] stdin = readBytes(in);
+
+        DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FrameOutputStream(response, STDOUT), FRAME_SIZE), false);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new FrameOutputStream(response, STDERR), FRAME_SIZE), false);
+        PrintStream systemOut = System.out;
+        PrintStream systemErr = System.err;
+        InputStream systemIn = System.in;
+        int code = 0;
+        try {
+            System.setOut(out);
+            System.setErr(err);
+            System.setIn(new ByteArrayInputStream(stdin));
+            gvt.mainInternal(args);
+        } catch (ExitSignal signal) {
+            code = signal.code;
+        } catch (RuntimeException e) {
+            e.printStackTrace(System.err);
+            code = 1;
+        } finally {
+            System.setOut(systemOut);
+            System.setErr(systemErr);
+            System.setIn(systemIn);
+            out.flush();
+            err.flush();
+        }
+        // a client that went away is noticed here, once the command has finished
+        if (out.checkError() || err.checkError()) throw new IOException("Client closed the connection.");
+        response.writeByte(EXIT);
+        response.writeInt(code);
+        response.flush();
+    }
+
+    /**
+     * Runs a command on the server, relaying its output to the given streams. Returns the exit code,
+     * or null when no server accepts the connection, in which case nothing was sent.
+     */
+    public Integer forward(String[] args, InputStream stdin, OutputStream stdout, OutputStream stderr) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return null;
+        }
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) writeBytes(request, arg.getBytes(StandardCharsets.UTF_8));
+            boolean readsStdin = Arrays.asList(args).contains("-");
+            writeBytes(request, readsStdin ? stdin.readAllBytes() : new byte[0]);
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] buffer = new byte[FRAME_SIZE];
+            while (true) {
+                int type = response.readByte();
+                if (type == EXIT) return response.readInt();
+                OutputStream target = switch (type) {
+                    case STDOUT -> stdout;
+                    case STDERR -> stderr;
+                    default -> throw new IOException("Unknown frame type: " + type);
+                };
+                for (int left = response.readInt(); left > 0; ) {
+                    int n = Math.min(left, buffer.length);
+                    response.readFully(buffer, 0, n);
+                    target.write(buffer, 0, n);
+                    left -= n;
+                }
+                target.flush();
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
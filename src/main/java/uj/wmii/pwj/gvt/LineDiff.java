@@ -0,0 +1,140 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming line diff in unified format without context lines. Common lines are skipped as they are
+ * read; differing regions are compared with Myers' algorithm over windows of at most {@link #WINDOW}
+ * lines per side, and everything up to the last line the window matched is written out before more
+ * is read. Memory is bounded by the window, whatever the file size. A change longer than a window is
+ * still reported correctly, though possibly as a larger replacement than strictly needed.
+ */
+final class LineDiff {
+    static final int WINDOW = 2048;
+    private static final int MAX_EDITS = WINDOW;
+
+    private LineDiff() {
+    }
+
+    /**
+     * Writes the hunks turning {@code a} into {@code b}, and returns whether there were any.
+     */
+    static boolean diff(BufferedReader a, BufferedReader b, Writer out) throws IOException {
+        List<String> left = new ArrayList<>();
+        List<String> right = new ArrayList<>();
+        int leftLine = 1;
+        int rightLine = 1;
+        boolean changed = false;
+        while (true) {
+            fill(left, a);
+            fill(right, b);
+            if (left.isEmpty() && right.isEmpty()) return changed;
+
+            int common = 0;
+            while (common < left.size() && common < right.size() && left.get(common).equals(right.get(common))) common++;
+            if (common > 0) {
+                left.subList(0, common).clear();
+                right.subList(0, common).clear();
+                leftLine += common;
+                rightLine += common;
+                continue;
+            }
+
+            changed = true;
+            List<int[]> matches = left.isEmpty() || right.isEmpty() ? null : matches(left, right);
+            if (matches == null || matches.isEmpty()) {
+                hunk(out, leftLine, left, rightLine, right);
+                leftLine += left.size();
+                rightLine += right.size();
+                left.clear();
+                right.clear();
+                continue;
+            }
+
+            int i = 0;
+            int j = 0;
+            for (int[] match : matches) {
+                if (match[0] > i || match[1] > j)
+                    hunk(out, leftLine + i, left.subList(i, match[0]), rightLine + j, right.subList(j, match[1]));
+                i = match[0] + 1;
+                j = match[1] + 1;
+            }
+            left.subList(0, i).clear();
+            right.subList(0, j).clear();
+            leftLine += i;
+            rightLine += j;
+        }
+    }
+
+    private static void fill(List<String> lines, BufferedReader reader) throws IOException {
+        for (String line; lines.size() < WINDOW && (line = reader.readLine()) != null; ) lines.add(line);
+    }
+
+    private static void hunk(Writer out, int leftLine, List<String> removed, int rightLine, List<String> added) throws IOException {
+        out.write("@@ -" + range(leftLine, removed.size()) + " +" + range(rightLine, added.size()) + " @@\n");
+        for (String line : removed) out.write("-" + line + "\n");
+        for (String line : added) out.write("+" + line + "\n");
+    }
+
+    private static String range(int start, int count) {
+        if (count == 1) return String.valueOf(start);
+        return (count == 0 ? start - 1 : start) + "," + count;
+    }
+
+    /**
+     * Matching line pairs of a shortest edit script, in order, or null when the script would be
+     * longer than {@link #MAX_EDITS}. The trace keeps only the live diagonals of every step, so it
+     * holds at most about MAX_EDITS squared ints.
+     */
+    static List<int[]> matches(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                    return backtrack(trace, n, m);
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        return null;
+    }
+
+    private static List<int[]> backtrack(List<int[]> trace, int n, int m) {
+        List<int[]> matches = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            int previousK = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]) ? k + 1 : k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            int startX = previousK == k + 1 ? previousX : previousX + 1;
+            int startY = startX - k;
+            while (x > startX && y > startY) matches.add(new int[]{--x, --y});
+            x = previousX;
+            y = previousY;
+        }
+        while (x > 0 && y > 0) matches.add(new int[]{--x, --y});
+        Collections.reverse(matches);
+        return matches;
+    }
+}
@@ -0,0 +1,257 @@
+package uj.wmii.pwj.gvt;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O counters and phase timers of the running command. Every command is recorded as a JFR event
+ * carrying its counters, and every phase as an event of its own, so that a recording shows where a
+ * slow command spent its time; with {@code -stats} the same figures are printed to standard error
+ * when the command ends. Counters are shared by the copy engine's threads and cost an uncontended
+ * add when nothing is recording. Phases may nest, so their times are inclusive.
+ */
+final class Metrics {
+    static final String STATS_OPTION = "-stats";
+
+    enum Counter {
+        FILES_READ("files read"),
+        FILES_WRITTEN("files written"),
+        FILES_COPIED("files copied"),
+        BYTES_READ("bytes read"),
+        BYTES_WRITTEN("bytes written"),
+        BYTES_COPIED("bytes copied"),
+        BYTES_HASHED("bytes hashed"),
+        METADATA_READS("metadata reads"),
+        DIRECTORY_LISTINGS("directory listings"),
+        FSYNCS("fsyncs");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    @Name("uj.wmii.pwj.gvt.Command")
+    @Label("Gvt Command")
+    @Category("Gvt")
+    @StackTrace(false)
+    static class CommandEvent extends Event {
+        @Label("Command") String command;
+        @Label("Files Read") long filesRead;
+        @Label("Files Written") long filesWritten;
+        @Label("Files Copied") long filesCopied;
+        @Label("Bytes Read") @DataAmount long bytesRead;
+        @Label("Bytes Written") @DataAmount long bytesWritten;
+        @Label("Bytes Copied") @DataAmount long bytesCopied;
+        @Label("Bytes Hashed") @DataAmount long bytesHashed;
+        @Label("Metadata Reads") long metadataReads;
+        @Label("Directory Listings") long directoryListings;
+        @Label("Fsyncs") long fsyncs;
+    }
+
+    @Name("uj.wmii.pwj.gvt.Phase")
+    @Label("Gvt Phase")
+    @Category("Gvt")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Command") String command;
+        @Label("Phase") String phase;
+    }
+
+    /**
+     * A running phase, ended by closing it.
+     */
+    static final class Phase implements AutoCloseable {
+        private final String name;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            Timer timer = PHASES.computeIfAbsent(name, key -> new Timer());
+            timer.nanos.add(elapsed);
+            timer.count.increment();
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.phase = name;
+                event.commit();
+            }
+        }
+    }
+
+    private static final class Timer {
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder count = new LongAdder();
+    }
+
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final Map<String, Timer> PHASES = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) COUNTERS[i] = new LongAdder();
+    }
+
+    private static String command;
+    private static CommandEvent commandEvent;
+    private static long commandStart;
+    private static PrintStream report;
+
+    private Metrics() {
+    }
+
+    static void fileRead(long bytes) {
+        add(Counter.FILES_READ, 1);
+        add(Counter.BYTES_READ, bytes);
+    }
+
+    static void fileWritten(long bytes) {
+        add(Counter.FILES_WRITTEN, 1);
+        add(Counter.BYTES_WRITTEN, bytes);
+    }
+
+    static void fileCopied(long bytes) {
+        add(Counter.FILES_COPIED, 1);
+        add(Counter.BYTES_COPIED, bytes);
+    }
+
+    static void hashed(long bytes) {
+        add(Counter.BYTES_HASHED, bytes);
+    }
+
+    static void metadataRead() {
+        add(Counter.METADATA_READS, 1);
+    }
+
+    static void directoryListed() {
+        add(Counter.DIRECTORY_LISTINGS, 1);
+    }
+
+    static void synced() {
+        add(Counter.FSYNCS, 1);
+    }
+
+    static void add(Counter counter, long value) {
+        COUNTERS[counter.ordinal()].add(value);
+    }
+
+    static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    /**
+     * Counts a file read through the stream: one file, and the bytes as they are consumed.
+     */
+    static InputStream countReads(InputStream in) {
+        add(Counter.FILES_READ, 1);
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) add(Counter.BYTES_READ, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) add(Counter.BYTES_READ, n);
+                return n;
+            }
+        };
+    }
+
+    static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Starts recording a command, clearing what the previous one left. With a {@code report} stream
+     * the summary is printed there when the command ends.
+     */
+    static synchronized void begin(String name, PrintStream reportTo) {
+        for (LongAdder counter : COUNTERS) counter.reset();
+        PHASES.clear();
+        command = name;
+        report = reportTo;
+        commandEvent = new CommandEvent();
+        commandEvent.begin();
+        commandStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the command started last, if it has not ended yet. Called both after the command returns
+     * and from a shutdown hook, since a command that exits the JVM never returns.
+     */
+    static synchronized void end() {
+        if (command == null) return;
+        long elapsed = System.nanoTime() - commandStart;
+        commandEvent.end();
+        if (commandEvent.shouldCommit()) {
+            commandEvent.command = command;
+            commandEvent.filesRead = get(Counter.FILES_READ);
+            commandEvent.filesWritten = get(Counter.FILES_WRITTEN);
+            commandEvent.filesCopied = get(Counter.FILES_COPIED);
+            commandEvent.bytesRead = get(Counter.BYTES_READ);
+            commandEvent.bytesWritten = get(Counter.BYTES_WRITTEN);
+            commandEvent.bytesCopied = get(Counter.BYTES_COPIED);
+            commandEvent.bytesHashed = get(Counter.BYTES_HASHED);
+            commandEvent.metadataReads = get(Counter.METADATA_READS);
+            commandEvent.directoryListings = get(Counter.DIRECTORY_LISTINGS);
+            commandEvent.fsyncs = get(Counter.FSYNCS);
+            commandEvent.commit();
+        }
+        if (report != null) {
+            report.print(summary(elapsed));
+            report.flush();
+        }
+        command = null;
+        commandEvent = null;
+        report = null;
+    }
+
+    static String summary(long elapsedNanos) {
+        StringBuilder summary = new StringBuilder();
+        summary.append("command ").append(command).append(": ").append(millis(elapsedNanos)).append("\n");
+        List<Map.Entry<String, Timer>> phases;
+        synchronized (PHASES) {
+            phases = new ArrayList<>(PHASES.entrySet());
+        }
+        for (Map.Entry<String, Timer> phase : phases) {
+            summary.append("phase ").append(phase.getKey()).append(": ").append(millis(phase.getValue().nanos.sum()));
+            long count = phase.getValue().count.sum();
+            if (count > 1) summary.append(" (").append(count).append(" times)");
+            summary.append("\n");
+        }
+        for (Counter counter : Counter.values())
+            summary.append(counter.label).append(": ").append(get(counter)).append("\n");
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f ms", nanos / 1_000_000.0);
+    }
+}
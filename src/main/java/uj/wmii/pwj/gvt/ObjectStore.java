@@ -0,0 +1,537 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of file revisions. An object is kept in one of three forms, all named
+ * after its hash: a plain copy of the content; with the {@code .z} suffix, the content compressed
+ * by the codec named in the object's header, followed by its uncompressed size; or with the
+ * {@code .delta} suffix, a delta against an earlier revision of the same file. Delta chains are cut
+ * by a whole keyframe every {@link #MAX_CHAIN_LENGTH} revisions. Files larger than
+ * {@link #CHUNKING_THRESHOLD} are split by {@link Chunker} instead: each chunk is an object of its
+ * own, and the file is a {@code .chunks} list of chunk hashes and lengths, so a change in one region
+ * stores only the chunks it touched.
+ */
+class ObjectStore {
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String COMPRESSED_SUFFIX = ".z";
+    private static final String CHUNKS_SUFFIX = ".chunks";
+    private static final int MAX_CHAIN_LENGTH = 16;
+    private static final long MAX_DELTA_SOURCE_SIZE = 16L * 1024 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    static final long CHUNKING_THRESHOLD = MAX_DELTA_SOURCE_SIZE;
+
+    private final Path root;
+    private final Codec codec;
+    private final Queue<Path> written = new ConcurrentLinkedQueue<>();
+
+    ObjectStore(Path root) {
+        this(root, Codec.BuiltIn.NONE);
+    }
+
+    ObjectStore(Path root, Codec codec) {
+        this.root = root;
+        this.codec = codec;
+    }
+
+    public Path getRoot() { return root; }
+
+    public Path locate(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private Path locateDelta(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2) + DELTA_SUFFIX);
+    }
+
+    private Path locateCompressed(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2) + COMPRESSED_SUFFIX);
+    }
+
+    private Path locateChunks(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2) + CHUNKS_SUFFIX);
+    }
+
+    public boolean contains(String hash) {
+        return isStoredWhole(hash) || Files.exists(locateCompressed(hash))
+                || Files.exists(locateDelta(hash)) || Files.exists(locateChunks(hash));
+    }
+
+    /**
+     * Tells whether the object is a plain copy of the content, which can be linked or transferred as is.
+     */
+    public boolean isStoredWhole(String hash) {
+        return Files.exists(locate(hash));
+    }
+
+    public String store(Path file) throws IOException {
+        return store(file, null);
+    }
+
+    /**
+     * Stores file content under its hash. Content already present in the store is not written again.
+     * When {@code baseHash} names the previous revision of the same file, the content is stored as a
+     * delta against it if that saves at least half of the space.
+     */
+    public String store(Path file, String baseHash) throws IOException {
+        Files.createDirectories(root);
+        if (Files.size(file) > CHUNKING_THRESHOLD) return storeChunked(file);
+        Path temp = newTempFile();
+        try {
+            String hash = codec == Codec.BuiltIn.NONE ? copyAndHash(file, temp) : compressAndHash(file, temp);
+            if (contains(hash)) return hash;
+
+            Files.createDirectories(locate(hash).getParent());
+            if (baseHash == null || !storeDelta(hash, temp, baseHash)) {
+                Path target = codec == Codec.BuiltIn.NONE ? locate(hash) : locateCompressed(hash);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                written.add(target);
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Stores the file chunk by chunk, hashing the whole content in the same pass. Only one chunk is
+     * held in memory at a time, and chunks already in the store are not written again.
+     */
+    private String storeChunked(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        Path temp = newTempFile();
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                 DataOutputStream list = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                Chunker.split(in, (chunk, length) -> {
+                    digest.update(chunk, 0, length);
+                    Metrics.hashed(length);
+                    list.writeUTF(storeBytes(chunk, length));
+                    list.writeInt(length);
+                });
+            }
+            Metrics.fileRead(Files.size(file));
+            String hash = HexFormat.of().formatHex(digest.digest());
+            if (contains(hash)) return hash;
+            Files.createDirectories(locate(hash).getParent());
+            Metrics.fileWritten(Files.size(temp));
+            Files.move(temp, locateChunks(hash), StandardCopyOption.ATOMIC_MOVE);
+            written.add(locateChunks(hash));
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Stores content held in memory, such as a tree object, under its hash.
+     */
+    public String store(byte[] content) throws IOException {
+        Files.createDirectories(root);
+        return storeBytes(content, content.length);
+    }
+
+    private String storeBytes(byte[] chunk, int length) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update(chunk, 0, length);
+        Metrics.hashed(length);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        if (contains(hash)) return hash;
+
+        Files.createDirectories(locate(hash).getParent());
+        Path temp = newTempFile();
+        try {
+            if (codec == Codec.BuiltIn.NONE) {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    out.write(chunk, 0, length);
+                }
+            } else {
+                try (DataOutputStream header = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    header.writeUTF(codec.getName());
+                    header.writeLong(length);
+                    try (OutputStream out = codec.encode(header)) {
+                        out.write(chunk, 0, length);
+                    }
+                }
+            }
+            Metrics.fileWritten(Files.size(temp));
+            Path target = codec == Codec.BuiltIn.NONE ? locate(hash) : locateCompressed(hash);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            written.add(target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    private record Chunk(String hash, int length) {
+    }
+
+    private List<Chunk> readChunks(String hash) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Metrics.countReads(Files.newInputStream(locateChunks(hash)))))) {
+            while (in.available() > 0) chunks.add(new Chunk(in.readUTF(), in.readInt()));
+        }
+        return chunks;
+    }
+
+    private boolean storeDelta(String hash, Path content, String baseHash) throws IOException {
+        if (!contains(baseHash) || Files.size(content) > MAX_DELTA_SOURCE_SIZE) return false;
+        long baseSize = size(baseHash);
+        if (baseSize > MAX_DELTA_SOURCE_SIZE) return false;
+        int depth = chainLength(baseHash) + 1;
+        if (depth >= MAX_CHAIN_LENGTH) return false;
+        byte[] base = read(baseHash);
+        if (base.length > MAX_DELTA_SOURCE_SIZE) return false;
+
+        byte[] target;
+        try (InputStream in = codec == Codec.BuiltIn.NONE ? Metrics.countReads(Files.newInputStream(content)) : openCompressed(content)) {
+            target = in.readAllBytes();
+        }
+        if (target.length > MAX_DELTA_SOURCE_SIZE) return false;
+        byte[] delta = Delta.encode(base, target);
+        if (delta.length > target.length / 2) return false;
+
+        Path temp = newTempFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeUTF(baseHash);
+                out.writeInt(depth);
+                out.write(delta);
+            }
+            Metrics.fileWritten(Files.size(temp));
+            Files.move(temp, locateDelta(hash), StandardCopyOption.ATOMIC_MOVE);
+            written.add(locateDelta(hash));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    private int chainLength(String hash) throws IOException {
+        if (!Files.exists(locateDelta(hash))) return 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(locateDelta(hash)))) {
+            in.readUTF();
+            return in.readInt();
+        }
+    }
+
+    /**
+     * Objects this one is stored in terms of: the base of a delta, or the chunks of a chunked file.
+     */
+    public List<String> references(String hash) throws IOException {
+        if (Files.exists(locateDelta(hash))) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(locateDelta(hash)))) {
+                return List.of(in.readUTF());
+            }
+        }
+        if (Files.exists(locateChunks(hash))) {
+            List<String> chunks = new ArrayList<>();
+            for (Chunk chunk : readChunks(hash)) chunks.add(chunk.hash());
+            return chunks;
+        }
+        return List.of();
+    }
+
+    /**
+     * Returns the full content of a revision, rebuilding it from its delta chain if necessary.
+     */
+    public byte[] read(String hash) throws IOException {
+        if (!Files.exists(locateDelta(hash))) {
+            try (InputStream in = open(hash)) {
+                return in.readAllBytes();
+            }
+        }
+        String baseHash;
+        byte[] delta;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Metrics.countReads(Files.newInputStream(locateDelta(hash)))))) {
+            baseHash = in.readUTF();
+            in.readInt();
+            delta = in.readAllBytes();
+        }
+        return Delta.apply(read(baseHash), delta);
+    }
+
+    public InputStream open(String hash) throws IOException {
+        if (isStoredWhole(hash)) return Metrics.countReads(Files.newInputStream(locate(hash)));
+        if (Files.exists(locateChunks(hash))) return openChunked(readChunks(hash));
+        Path compressed = locateCompressed(hash);
+        if (Files.exists(compressed)) return openCompressed(compressed);
+        if (!Files.exists(locateDelta(hash))) throw new NoSuchFileException(locate(hash).toString());
+        return new ByteArrayInputStream(read(hash));
+    }
+
+    private static InputStream openCompressed(Path compressed) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Metrics.countReads(Files.newInputStream(compressed))));
+        try {
+            Codec objectCodec = Codec.forName(in.readUTF());
+            in.readLong();
+            return objectCodec.decode(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Concatenates the chunks, opening each one only when the previous one is exhausted.
+     */
+    private InputStream openChunked(List<Chunk> chunks) {
+        Iterator<Chunk> remaining = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return remaining.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return open(remaining.next().hash());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Size of the content, or -1 when it is only known after rebuilding a delta.
+     */
+    public long size(String hash) throws IOException {
+        if (isStoredWhole(hash)) return Files.size(locate(hash));
+        if (Files.exists(locateChunks(hash))) {
+            long size = 0;
+            for (Chunk chunk : readChunks(hash)) size += chunk.length();
+            return size;
+        }
+        Path compressed = locateCompressed(hash);
+        if (!Files.exists(compressed)) return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(compressed)))) {
+            in.readUTF();
+            return in.readLong();
+        }
+    }
+
+    /**
+     * Tells whether {@code file} already holds the given revision. A whole object of a different size
+     * answers without reading the file; otherwise the file is hashed.
+     */
+    public boolean matches(String hash, Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return false;
+        long size = size(hash);
+        if (size >= 0 && size != Files.size(file)) return false;
+        return hash.equals(hash(file));
+    }
+
+    public static String hash(Path file) throws IOException {
+        return copyAndHash(file, null);
+    }
+
+    public void restore(String hash, Path target) throws IOException {
+        if (isStoredWhole(hash)) {
+            transfer(locate(hash), target);
+        } else {
+            try (InputStream in = open(hash)) {
+                Metrics.fileCopied(Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING));
+            }
+        }
+    }
+
+    /**
+     * Hashes {@code source} while writing it compressed to {@code target}, behind a header naming
+     * the codec and the uncompressed size.
+     */
+    private String compressAndHash(Path source, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             DataOutputStream header = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            long size = in.size();
+            header.writeUTF(codec.getName());
+            header.writeLong(size);
+            try (OutputStream out = codec.encode(header)) {
+                WritableByteChannel channel = Channels.newChannel(out);
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                    digest.update(window.duplicate());
+                    while (window.hasRemaining()) channel.write(window);
+                }
+            }
+            Metrics.fileRead(size);
+            Metrics.hashed(size);
+        }
+        Metrics.fileWritten(Files.size(target));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hashes {@code source} and, unless {@code target} is null, copies it there in the same pass:
+     * each mapped window of the source is digested and then written out from the mapping itself,
+     * so every byte is read from the page cache once.
+     */
+    static String copyAndHash(Path source, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = target == null ? null : FileChannel.open(target,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                digest.update(window.duplicate());
+                while (out != null && window.hasRemaining()) out.write(window);
+            }
+            Metrics.fileRead(size);
+            Metrics.hashed(size);
+            if (out != null) Metrics.fileWritten(size);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copies a file with {@link FileChannel#transferTo}, which the kernel can serve without passing
+     * the data through user space (copy_file_range or sendfile on Linux).
+     */
+    static void transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long position = 0; position < size; ) position += in.transferTo(position, size - position, out);
+            Metrics.fileCopied(size);
+        }
+    }
+
+    /**
+     * Returns the objects written by this store since the last call, so that they can be synced
+     * to disk in one batch.
+     */
+    public List<Path> drainWritten() {
+        List<Path> paths = new ArrayList<>();
+        for (Path path; (path = written.poll()) != null; ) paths.add(path);
+        return paths;
+    }
+
+    record Swept(int objects, long bytes) {
+    }
+
+    /**
+     * Names of the shard directories objects are spread over, by the first two digits of their hash.
+     */
+    public List<String> shards() throws IOException {
+        if (!Files.isDirectory(root)) return List.of();
+        Metrics.directoryListed();
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(Files::isDirectory).map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    /**
+     * Deletes the objects of one shard whose hash {@code reachable} rejects, in whatever form they
+     * are stored, and returns how many there were and the space they took.
+     */
+    public Swept sweep(String shard, Predicate<String> reachable) throws IOException {
+        int objects = 0;
+        long bytes = 0;
+        Metrics.directoryListed();
+        try (Stream<Path> files = Files.list(root.resolve(shard))) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                int suffix = name.indexOf('.');
+                if (reachable.test(shard + (suffix < 0 ? name : name.substring(0, suffix)))) continue;
+                long size = Files.size(file);
+                Files.delete(file);
+                objects++;
+                bytes += size;
+            }
+        }
+        return new Swept(objects, bytes);
+    }
+
+    /**
+     * Hashes of every object in the store, whatever form it is kept in.
+     */
+    public List<String> list() throws IOException {
+        List<String> hashes = new ArrayList<>();
+        for (String shard : shards()) {
+            Metrics.directoryListed();
+            try (Stream<Path> files = Files.list(root.resolve(shard))) {
+                for (Path file : files.toList()) {
+                    String name = file.getFileName().toString();
+                    int suffix = name.indexOf('.');
+                    hashes.add(shard + (suffix < 0 ? name : name.substring(0, suffix)));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Reads the object back and tells whether its content still hashes to its name, returning the
+     * number of bytes hashed, or -1 when it does not. A chunked file is only checked for the
+     * presence of its chunks, which are objects of their own and verified as such.
+     */
+    public long verify(String hash) throws IOException {
+        if (Files.exists(locateChunks(hash))) {
+            for (Chunk chunk : readChunks(hash)) if (!contains(chunk.hash())) return -1;
+            return 0;
+        }
+        MessageDigest digest = newDigest();
+        long size = 0;
+        try (InputStream in = open(hash)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) > 0; size += n) digest.update(buffer, 0, n);
+        }
+        Metrics.hashed(size);
+        return hash.equals(HexFormat.of().formatHex(digest.digest())) ? size : -1;
+    }
+
+    /**
+     * Temporary files left by a writer that did not finish, or that is still running.
+     */
+    public List<Path> tempFiles() throws IOException {
+        if (!Files.isDirectory(root)) return List.of();
+        Metrics.directoryListed();
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(TEMP_PREFIX)).toList();
+        }
+    }
+
+    /**
+     * Deletes temporary files left by a writer that did not finish.
+     */
+    public void removeTempFiles() throws IOException {
+        for (Path file : tempFiles()) Files.deleteIfExists(file);
+    }
+
+    // Files.createTempFile would leave objects, and everything restored from them, owner-only.
+    private Path newTempFile() {
+        return root.resolve(TEMP_PREFIX + UUID.randomUUID());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Fixed-layout repository header, mapped once per process and read and updated in place: magic,
+ * format, latest version, active version, number of versions, then the number of files tracked by
+ * the latest version and the total size of stored objects. Every field is naturally aligned, so a
+ * reader sees each one either before or after a writer's update, never half of it. Other processes
+ * share the mapping through the page cache and see updates without reopening the file.
+ */
+class RepositoryHeader {
+    static final int SIZE = 40;
+    private static final int MAGIC = 0x47565448;
+    private static final int FORMAT = 1;
+    private static final int LATEST_OFFSET = 8;
+    private static final int ACTIVE_OFFSET = 12;
+    private static final int VERSIONS_OFFSET = 16;
+    private static final int FILES_OFFSET = 24;
+    private static final int STORED_BYTES_OFFSET = 32;
+
+    private final MappedByteBuffer buffer;
+    private final boolean writable;
+
+    private RepositoryHeader(MappedByteBuffer buffer, boolean writable) {
+        this.buffer = buffer;
+        this.writable = writable;
+    }
+
+    /**
+     * Maps the header, read-only unless {@code writable}, so that commands that only read work on a
+     * repository they cannot write to. The setters of a read-only header throw.
+     */
+    public static RepositoryHeader open(Path file, boolean writable) throws IOException {
+        try (FileChannel channel = writable ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < SIZE) throw new IOException("Repository header is truncated: " + file);
+            MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT)
+                throw new IOException("Not a repository header: " + file);
+            return new RepositoryHeader(buffer, writable);
+        }
+    }
+
+    /**
+     * Writes a new header next to {@code file} and renames it into place, so that a concurrent
+     * {@link #open} finds either no header or a complete one.
+     */
+    public static void create(Path file, int latest, int active, int versions, long files, long storedBytes) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(SIZE)
+                .putInt(MAGIC).putInt(FORMAT).putInt(latest).putInt(active).putInt(versions).putInt(0)
+                .putLong(files).putLong(storedBytes).flip();
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID());
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) channel.write(content);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public int getLatest() { return buffer.getInt(LATEST_OFFSET); }
+    public int getActive() { return buffer.getInt(ACTIVE_OFFSET); }
+    public int getVersionCount() { return buffer.getInt(VERSIONS_OFFSET); }
+    public long getFileCount() { return buffer.getLong(FILES_OFFSET); }
+    public long getStoredBytes() { return buffer.getLong(STORED_BYTES_OFFSET); }
+    public boolean isWritable() { return writable; }
+
+    public void setActive(int version) {
+        buffer.putInt(ACTIVE_OFFSET, version);
+    }
+
+    /**
+     * Records a newly published version, which also becomes the active one. The counters are
+     * updated before the pointers, so a reader that sees the new latest version sees its counts.
+     */
+    public void publish(int version, long files) {
+        buffer.putInt(VERSIONS_OFFSET, getVersionCount() + 1);
+        buffer.putLong(FILES_OFFSET, files);
+        buffer.putInt(LATEST_OFFSET, version);
+        buffer.putInt(ACTIVE_OFFSET, version);
+    }
+
+    public void addStoredBytes(long bytes) {
+        buffer.putLong(STORED_BYTES_OFFSET, getStoredBytes() + bytes);
+    }
+
+    /**
+     * Writes the header through to the disk.
+     */
+    public void force() {
+        buffer.force();
+        Metrics.synced();
+    }
+}
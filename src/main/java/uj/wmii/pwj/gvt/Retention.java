@@ -0,0 +1,58 @@
+package uj.wmii.pwj.gvt;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Versions gc keeps when it prunes older ones. Rules add up: the {@code last} newest versions, the
+ * newest version of each of the {@code daily} most recent days and of the {@code monthly} most recent
+ * months that have versions, and tagged versions. Tagged versions, the latest version and the active
+ * one are always kept, so {@code tagged} alone prunes everything else. With no rule, nothing is pruned.
+ */
+final class Retention {
+    private final int last;
+    private final int daily;
+    private final int monthly;
+    private final boolean tagged;
+
+    Retention(int last, int daily, int monthly, boolean tagged) {
+        this.last = last;
+        this.daily = daily;
+        this.monthly = monthly;
+        this.tagged = tagged;
+    }
+
+    boolean prunes() {
+        return last > 0 || daily > 0 || monthly > 0 || tagged;
+    }
+
+    /**
+     * Versions to keep, given the commit time of every version from 0 to the latest.
+     */
+    BitSet keep(long[] times, int active, Collection<Integer> tags, ZoneId zone) {
+        int latest = times.length - 1;
+        BitSet keep = new BitSet(times.length);
+        if (!prunes()) {
+            keep.set(0, times.length);
+            return keep;
+        }
+        keep.set(Math.max(0, latest - last + 1), latest + 1);
+        Set<LocalDate> days = new HashSet<>();
+        Set<YearMonth> months = new HashSet<>();
+        for (int v = latest; v >= 0; v--) {
+            LocalDate day = LocalDate.ofInstant(Instant.ofEpochMilli(times[v]), zone);
+            if (days.size() < daily && days.add(day)) keep.set(v);
+            if (months.size() < monthly && months.add(YearMonth.from(day))) keep.set(v);
+        }
+        for (int tag : tags) if (tag >= 0 && tag <= latest) keep.set(tag);
+        if (active >= 0) keep.set(active);
+        keep.set(latest);
+        return keep;
+    }
+}
@@ -0,0 +1,176 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Directory trees stored as objects, Merkle style. A tree object lists the entries of one directory
+ * in name order, one per line: {@code blob <hash> <name>} for a file and {@code tree <hash> <name>}
+ * for a subdirectory, whose hash is that of its own tree object. Two versions whose directories have
+ * the same hash hold the same files there, so comparisons stop at the first equal hash, and a commit
+ * only writes tree objects for the directories on the paths of its changes.
+ */
+final class Tree {
+    private static final String BLOB = "blob";
+    private static final String TREE = "tree";
+
+    record Entry(String type, String hash) {
+        boolean isTree() {
+            return TREE.equals(type);
+        }
+    }
+
+    /**
+     * A file that differs between two trees; {@code oldHash} or {@code newHash} is null when the
+     * file exists on one side only.
+     */
+    record Change(String oldHash, String newHash) {
+    }
+
+    private Tree() {
+    }
+
+    /**
+     * A path that is also the directory of another path, such as {@code a} next to {@code a/b}, or
+     * null when there is none. A manifest with such a path has no tree.
+     */
+    static String conflict(Collection<String> paths) {
+        Set<String> directories = new HashSet<>();
+        for (String path : paths) {
+            for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1))
+                directories.add(path.substring(0, slash));
+        }
+        for (String path : paths) if (directories.contains(path)) return path;
+        return null;
+    }
+
+    /**
+     * Stores the trees of a manifest of slash-separated paths and returns the hash of the root.
+     * Trees already in the store, such as unchanged directories, are not written again. The manifest
+     * must have no {@link #conflict(Collection) conflict}.
+     */
+    static String write(ObjectStore objects, Map<String, String> manifest) throws IOException {
+        Map<String, Object> root = new TreeMap<>();
+        for (Map.Entry<String, String> file : manifest.entrySet()) {
+            Map<String, Object> directory = root;
+            String[] parts = file.getKey().split("/");
+            for (int i = 0; i < parts.length - 1; i++) {
+                Object child = directory.computeIfAbsent(parts[i], name -> new TreeMap<String, Object>());
+                if (!(child instanceof Map<?, ?>)) throw new IllegalArgumentException("Path is both a file and a directory: " + file.getKey());
+                @SuppressWarnings("unchecked")
+                Map<String, Object> childDirectory = (Map<String, Object>) child;
+                directory = childDirectory;
+            }
+            if (directory.get(parts[parts.length - 1]) instanceof Map<?, ?>)
+                throw new IllegalArgumentException("Path is both a file and a directory: " + file.getKey());
+            directory.put(parts[parts.length - 1], file.getValue());
+        }
+        return writeDirectory(objects, root);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String writeDirectory(ObjectStore objects, Map<String, Object> directory) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Object> entry : directory.entrySet()) {
+            if (entry.getValue() instanceof Map<?, ?> child) {
+                content.append(TREE).append(' ').append(writeDirectory(objects, (Map<String, Object>) child));
+            } else {
+                content.append(BLOB).append(' ').append(entry.getValue());
+            }
+            content.append(' ').append(entry.getKey()).append('\n');
+        }
+        return objects.store(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Map<String, Entry> entries(ObjectStore objects, String hash) throws IOException {
+        Map<String, Entry> entries = new TreeMap<>();
+        if (hash == null) return entries;
+        for (String line : new String(objects.read(hash), StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) continue;
+            int typeEnd = line.indexOf(' ');
+            int hashEnd = line.indexOf(' ', typeEnd + 1);
+            entries.put(line.substring(hashEnd + 1), new Entry(line.substring(0, typeEnd), line.substring(typeEnd + 1, hashEnd)));
+        }
+        return entries;
+    }
+
+    /**
+     * Entry at a slash-separated path below the root, or null when there is none. Only the trees on
+     * the path are read.
+     */
+    static Entry find(ObjectStore objects, String root, String path) throws IOException {
+        Entry entry = new Entry(TREE, root);
+        for (String part : path.split("/")) {
+            if (!entry.isTree()) return null;
+            entry = entries(objects, entry.hash()).get(part);
+            if (entry == null) return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the tree, the trees below it and the files they list to {@code marked}, and the files not
+     * marked before also to {@code newFiles}. Trees already marked are not read again, so directories
+     * shared by many versions are walked once.
+     */
+    static void mark(ObjectStore objects, String hash, Set<String> marked, Collection<String> newFiles) throws IOException {
+        if (!marked.add(hash)) return;
+        for (Entry entry : entries(objects, hash).values()) {
+            if (entry.isTree()) mark(objects, entry.hash(), marked, newFiles);
+            else if (marked.add(entry.hash())) newFiles.add(entry.hash());
+        }
+    }
+
+    /**
+     * Flattens a tree back into a manifest of paths mapped to file hashes.
+     */
+    static Map<String, String> read(ObjectStore objects, String root) throws IOException {
+        Map<String, String> manifest = new TreeMap<>();
+        read(objects, root, "", manifest);
+        return manifest;
+    }
+
+    private static void read(ObjectStore objects, String hash, String prefix, Map<String, String> manifest) throws IOException {
+        for (Map.Entry<String, Entry> entry : entries(objects, hash).entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue().isTree()) read(objects, entry.getValue().hash(), path + "/", manifest);
+            else manifest.put(path, entry.getValue().hash());
+        }
+    }
+
+    /**
+     * Files that differ between two trees, by path. Subtrees with equal hashes are not read.
+     */
+    static Map<String, Change> diff(ObjectStore objects, String oldRoot, String newRoot) throws IOException {
+        Map<String, Change> changes = new TreeMap<>();
+        diff(objects, oldRoot, newRoot, "", changes);
+        return changes;
+    }
+
+    private static void diff(ObjectStore objects, String oldHash, String newHash, String prefix, Map<String, Change> changes) throws IOException {
+        if (Objects.equals(oldHash, newHash)) return;
+        Map<String, Entry> before = entries(objects, oldHash);
+        Map<String, Entry> after = entries(objects, newHash);
+        TreeSet<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            Entry oldEntry = before.get(name);
+            Entry newEntry = after.get(name);
+            if (Objects.equals(oldEntry, newEntry)) continue;
+            String path = prefix + name;
+            String oldTree = oldEntry != null && oldEntry.isTree() ? oldEntry.hash() : null;
+            String newTree = newEntry != null && newEntry.isTree() ? newEntry.hash() : null;
+            if (oldTree != null || newTree != null) diff(objects, oldTree, newTree, path + "/", changes);
+            String oldBlob = oldEntry != null && !oldEntry.isTree() ? oldEntry.hash() : null;
+            String newBlob = newEntry != null && !newEntry.isTree() ? newEntry.hash() : null;
+            if (!Objects.equals(oldBlob, newBlob)) changes.put(path, new Change(oldBlob, newBlob));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only pack of version metadata. Versions are packed in order starting from 0, so the index is
+ * a plain array of record offsets: version {@code v} lives at the offset stored in slot {@code v}.
+ * A record holds the message and the manifest, each prefixed with its length in bytes.
+ * Both files are memory-mapped and remapped only when they grow.
+ */
+class VersionPack {
+    private static final String PACK_FILE_NAME = "versions.pack";
+    private static final String INDEX_FILE_NAME = "versions.idx";
+    // a mapping covers at most this much of a file; records past it are read through the channel
+    private static final long MAX_MAPPED = Integer.MAX_VALUE;
+
+    private final Path packFile;
+    private final Path indexFile;
+    private MappedByteBuffer pack;
+    private MappedByteBuffer index;
+
+    VersionPack(Path dir) {
+        this.packFile = dir.resolve(PACK_FILE_NAME);
+        this.indexFile = dir.resolve(INDEX_FILE_NAME);
+    }
+
+    public int getPackedCount() throws IOException {
+        return Files.exists(indexFile) ? (int) (Files.size(indexFile) / Long.BYTES) : 0;
+    }
+
+    public String readMessage(int version) throws IOException {
+        ByteBuffer record = record(version);
+        return record == null ? null : readString(record);
+    }
+
+    public String readManifest(int version) throws IOException {
+        ByteBuffer record = record(version);
+        if (record == null) return null;
+        record.position(record.getInt(0) + Integer.BYTES);
+        return readString(record);
+    }
+
+    /**
+     * Appends the next versions, starting at {@link #getPackedCount()}. Anything written past the last
+     * indexed record by an interrupted append is discarded first.
+     */
+    public void append(String[] messages, String[] manifests) throws IOException {
+        Files.createDirectories(packFile.getParent());
+        int count = getPackedCount();
+        long end = count == 0 ? 0 : recordEnd(count - 1);
+        try (FileChannel packChannel = FileChannel.open(packFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            packChannel.truncate(end);
+            packChannel.position(end);
+            ByteBuffer offsets = ByteBuffer.allocate(messages.length * Long.BYTES);
+            for (int i = 0; i < messages.length; i++) {
+                offsets.putLong(packChannel.position());
+                byte[] message = messages[i].getBytes(StandardCharsets.UTF_8);
+                byte[] manifest = manifests[i].getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + message.length + manifest.length);
+                record.putInt(message.length).put(message).putInt(manifest.length).put(manifest).flip();
+                while (record.hasRemaining()) packChannel.write(record);
+            }
+            packChannel.force(false);
+            offsets.flip();
+            indexChannel.position((long) count * Long.BYTES);
+            while (offsets.hasRemaining()) indexChannel.write(offsets);
+            indexChannel.force(false);
+        }
+    }
+
+    private long recordEnd(int version) throws IOException {
+        return offset(version) + record(version).limit();
+    }
+
+    // The mappings are refreshed whenever the files changed size. Each read works on its own
+    // references to them, so history's parallel readers may safely replace them.
+    private ByteBuffer record(int version) throws IOException {
+        if (version < 0 || version >= getPackedCount()) return null;
+        long offset = offset(version);
+        MappedByteBuffer mappedPack = pack;
+        if (mappedPack == null || mappedPack.capacity() != Math.min(Files.size(packFile), MAX_MAPPED))
+            pack = mappedPack = map(packFile);
+        int messageLength = read(mappedPack, packFile, offset, Integer.BYTES).getInt(0);
+        int manifestLength = read(mappedPack, packFile, offset + Integer.BYTES + messageLength, Integer.BYTES).getInt(0);
+        return read(mappedPack, packFile, offset, 2 * Integer.BYTES + messageLength + manifestLength);
+    }
+
+    private long offset(int version) throws IOException {
+        MappedByteBuffer mappedIndex = index;
+        if (mappedIndex == null || mappedIndex.capacity() != Math.min(Files.size(indexFile), MAX_MAPPED))
+            index = mappedIndex = map(indexFile);
+        return read(mappedIndex, indexFile, (long) version * Long.BYTES, Long.BYTES).getLong(0);
+    }
+
+    private static ByteBuffer read(MappedByteBuffer mapped, Path file, long position, int length) throws IOException {
+        if (position + length <= mapped.capacity()) return mapped.slice((int) position, length);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Truncated " + file);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_MAPPED));
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        return StandardCharsets.UTF_8.decode(record.slice(record.position(), length)).toString();
+    }
+}
@@ -0,0 +1,90 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stat cache of tracked working files: size, modification time, file key (device and inode where the
+ * platform has one) and the content hash seen at that stat. A file whose stat still matches its entry
+ * is known to hold the cached hash without being read. Entries modified no earlier than the index file
+ * itself are not trusted, since a later write within the same timestamp tick would go unnoticed.
+ */
+class WorkingTreeIndex {
+    private static final int FORMAT = 1;
+
+    record Entry(long size, long modified, String fileKey, String hash) {
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private long savedAt;
+    private boolean dirty;
+
+    private WorkingTreeIndex(Path file) {
+        this.file = file;
+    }
+
+    static WorkingTreeIndex load(Path file) throws IOException {
+        WorkingTreeIndex index = new WorkingTreeIndex(file);
+        if (!Files.exists(file)) return index;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT) return index;
+            index.savedAt = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                index.entries.put(name, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF()));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the hash of {@code path} if its stat still matches the entry recorded for {@code name},
+     * or null when the file has to be read to know its content.
+     */
+    public String cachedHash(String name, Path path) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null || !Files.isRegularFile(path)) return null;
+        Entry current = stat(path, entry.hash());
+        return current.equals(entry) && entry.modified() < savedAt ? entry.hash() : null;
+    }
+
+    public void update(String name, Path path, String hash) throws IOException {
+        entries.put(name, stat(path, hash));
+        dirty = true;
+    }
+
+    public void remove(String name) {
+        dirty |= entries.remove(name) != null;
+    }
+
+    public void save() throws IOException {
+        if (!dirty) return;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FORMAT);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size());
+                out.writeLong(e.getValue().modified());
+                out.writeUTF(e.getValue().fileKey());
+                out.writeUTF(e.getValue().hash());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private static Entry stat(Path path, String hash) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        return new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                fileKey == null ? "" : fileKey.toString(), hash);
+    }
+}
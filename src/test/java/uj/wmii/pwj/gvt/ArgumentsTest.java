@@ -0,0 +1,32 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArgumentsTest {
+
+    @Test
+    public void splitsFilesFromUserMessage() {
+        String[] args = {"a.txt", "b.txt", "-m", "Two files"};
+
+        assertThat(Gvt.fileArguments(args)).containsExactly("a.txt", "b.txt");
+        assertThat(Gvt.userMessage(args)).isEqualTo("Two files");
+    }
+
+    @Test
+    public void acceptsFilesWithoutUserMessage() {
+        String[] args = {"a.txt"};
+
+        assertThat(Gvt.fileArguments(args)).containsExactly("a.txt");
+        assertThat(Gvt.userMessage(args)).isNull();
+    }
+
+    @Test
+    public void describesOneOrManyFiles() {
+        assertThat(Gvt.describeFiles(List.of("a.txt"))).isEqualTo("File: a.txt");
+        assertThat(Gvt.describeFiles(List.of("a.txt", "b.txt"))).isEqualTo("Files: a.txt, b.txt");
+    }
+}
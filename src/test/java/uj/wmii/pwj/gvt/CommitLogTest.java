@@ -0,0 +1,67 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommitLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void readsFirstLineAndFullMessage() throws IOException {
+        CommitLog log = new CommitLog(dir);
+        log.append(0, 100, "GVT initialized.");
+        log.append(1, 200, "Again modified b.txt\nWith two lines!");
+
+        assertThat(log.getCount()).isEqualTo(2);
+        assertThat(log.readFirstLine(1)).isEqualTo("Again modified b.txt");
+        assertThat(log.readMessage(1)).isEqualTo("Again modified b.txt\nWith two lines!");
+        assertThat(log.readFirstLine(0)).isEqualTo("GVT initialized.");
+        assertThat(log.readTime(1)).isEqualTo(200);
+    }
+
+    @Test
+    public void appendReplacesUnpublishedRecords() throws IOException {
+        CommitLog log = new CommitLog(dir);
+        log.append(0, 0, "GVT initialized.");
+        log.append(1, 0, "torn commit");
+        log.append(2, 0, "also torn");
+
+        log.append(1, 0, "replacement");
+
+        assertThat(log.getCount()).isEqualTo(2);
+        assertThat(log.readMessage(1)).isEqualTo("replacement");
+    }
+
+    @Test
+    public void readsMessagesPastTwoGigabytes() throws IOException {
+        CommitLog log = new CommitLog(dir);
+        log.append(0, 0, "GVT initialized.");
+        long offset = 3L * 1024 * 1024 * 1024;
+        byte[] message = "far away".getBytes(StandardCharsets.UTF_8);
+        try (FileChannel messages = FileChannel.open(dir.resolve("messages.log"), StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(dir.resolve("commits.idx"), StandardOpenOption.WRITE)) {
+            // sparse up to the message, as if earlier messages filled it
+            messages.write(ByteBuffer.wrap(message), offset);
+            index.write(ByteBuffer.allocate(CommitLog.RECORD_SIZE)
+                    .putInt(1).putLong(0).putLong(offset).putInt(3).putInt(message.length).flip(), CommitLog.RECORD_SIZE);
+        }
+
+        log.append(2, 0, "farther");
+
+        assertThat(log.readFirstLine(1)).isEqualTo("far");
+        assertThat(log.readMessage(1)).isEqualTo("far away");
+        assertThat(log.readMessage(2)).isEqualTo("farther");
+        assertThat(log.readMessage(0)).isEqualTo("GVT initialized.");
+    }
+}
@@ -0,0 +1,38 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+public class CopyEngineTest {
+
+    @Test
+    public void keepsResultsInInputOrder() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) names.add("file" + i);
+
+        Map<String, Integer> results = new CopyEngine(8).map(names, name -> name.length());
+
+        assertThat(new ArrayList<>(results.keySet())).isEqualTo(names);
+    }
+
+    @Test
+    public void reportsFailuresInInputOrder() {
+        List<String> names = List.of("a", "b", "c", "d", "e");
+
+        IOException failure = catchThrowableOfType(() -> new CopyEngine(4).forEach(names, name -> {
+            if (name.equals("b") || name.equals("d")) throw new IOException("cannot copy " + name);
+            return null;
+        }), IOException.class);
+
+        assertThat(failure.getMessage()).isEqualTo("2 of 5 file operations failed, first: b");
+        assertThat(failure.getCause().getMessage()).isEqualTo("cannot copy b");
+        assertThat(failure.getSuppressed()[0].getMessage()).isEqualTo("cannot copy d");
+    }
+}
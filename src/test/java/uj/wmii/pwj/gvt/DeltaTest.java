@@ -0,0 +1,57 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeltaTest {
+
+    @Test
+    public void rebuildsEditedText() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) text.append("row ").append(i).append(",value,").append(i * 7).append('\n');
+        byte[] base = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] target = text.insert(5000, "inserted line\n").replace(100, 110, "X").toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] delta = Delta.encode(base, target);
+
+        assertThat(Delta.apply(base, delta)).isEqualTo(target);
+        assertThat(delta.length).isLessThan(target.length / 10);
+    }
+
+    @Test
+    public void findsBlocksOfLargeBase() throws IOException {
+        Random random = new Random(42);
+        byte[] base = new byte[1 << 20];
+        random.nextBytes(base);
+        byte[] target = base.clone();
+        for (int i = 0; i < target.length; i += 64 * 1024) target[i] ^= 1;
+
+        byte[] delta = Delta.encode(base, target);
+
+        assertThat(Delta.apply(base, delta)).isEqualTo(target);
+        assertThat(delta.length).isLessThan(4096);
+    }
+
+    @Test
+    public void rebuildsUnrelatedContent() throws IOException {
+        Random random = new Random(42);
+        byte[] base = new byte[3000];
+        byte[] target = new byte[2000];
+        random.nextBytes(base);
+        random.nextBytes(target);
+
+        assertThat(Delta.apply(base, Delta.encode(base, target))).isEqualTo(target);
+    }
+
+    @Test
+    public void rebuildsFromEmptyBase() throws IOException {
+        byte[] target = "short".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(Delta.apply(new byte[0], Delta.encode(new byte[0], target))).isEqualTo(target);
+    }
+}
@@ -0,0 +1,47 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void revisionsListOnlyVersionsTouchingTheFile() throws IOException {
+        FileHistory history = new FileHistory(dir.resolve("files"));
+        history.append(0, Map.of());
+        history.append(1, Map.of("a.txt", FileHistory.Action.ADDED));
+        history.append(2, Map.of("b.txt", FileHistory.Action.ADDED));
+        history.append(3, Map.of("a.txt", FileHistory.Action.COMMITTED));
+        history.append(4, Map.of("a.txt", FileHistory.Action.DETACHED));
+
+        assertThat(history.revisions("a.txt")).isEqualTo(List.of(
+                new FileHistory.Revision(1, FileHistory.Action.ADDED),
+                new FileHistory.Revision(3, FileHistory.Action.COMMITTED),
+                new FileHistory.Revision(4, FileHistory.Action.DETACHED)));
+        assertThat(history.revisions("c.txt")).isEqualTo(List.of());
+        assertThat(history.getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void replayedVersionReplacesEarlierRecords() throws IOException {
+        FileHistory history = new FileHistory(dir.resolve("files"));
+        history.append(0, Map.of("a.txt", FileHistory.Action.ADDED));
+        history.append(1, Map.of("a.txt", FileHistory.Action.COMMITTED));
+
+        history.append(1, Map.of("a.txt", FileHistory.Action.DETACHED));
+
+        assertThat(history.revisions("a.txt")).isEqualTo(List.of(
+                new FileHistory.Revision(0, FileHistory.Action.ADDED),
+                new FileHistory.Revision(1, FileHistory.Action.DETACHED)));
+    }
+}
@@ -0,0 +1,253 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void linkSnapshotSharesObjectFile() throws IOException {
+        Path object = Files.writeString(dir.resolve("object"), "content");
+        Path target = dir.resolve("a.txt");
+
+        Gvt.FileRepository.SnapshotMode.LINK.materialize(object, target);
+
+        assertThat(Files.isSameFile(object, target)).isTrue();
+    }
+
+    @Test
+    public void linkSnapshotFallsBackToCopy() throws IOException {
+        Path object = Files.writeString(dir.resolve("object"), "content");
+        Path target = Files.writeString(dir.resolve("a.txt"), "stale");
+
+        Gvt.FileRepository.SnapshotMode.LINK.materialize(object, target);
+
+        assertThat(Files.isSameFile(object, target)).isFalse();
+        assertThat(Files.readString(target)).isEqualTo("content");
+    }
+
+    @Test
+    public void copySnapshotDoesNotShareObjectFile() throws IOException {
+        Path object = Files.writeString(dir.resolve("object"), "content");
+        Path target = dir.resolve("a.txt");
+
+        Gvt.FileRepository.SnapshotMode.COPY.materialize(object, target);
+
+        assertThat(Files.isSameFile(object, target)).isFalse();
+        assertThat(Files.readString(target)).isEqualTo("content");
+    }
+
+    @Test
+    public void recoveryPublishesRenamedVersion() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        Path staged = repo.createNewVersion(home, 1, Map.of("a.txt", "abc"));
+        Files.writeString(staged.resolve(".gvt.message"), "Second version");
+        Files.move(staged, home.resolve("1"));
+
+        repo.recover(home);
+
+        assertThat(repo.getLatestVersion(home)).isEqualTo(1);
+        assertThat(repo.getActiveVersion(home)).isEqualTo(1);
+        assertThat(repo.readFirstLine(home, 1)).isEqualTo("Second version");
+    }
+
+    @Test
+    public void recoveryDiscardsStagedVersion() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        Path staged = repo.createNewVersion(home, 1, Map.of("a.txt", "abc"));
+
+        repo.recover(home);
+
+        assertThat(Files.exists(staged)).isFalse();
+        assertThat(Files.exists(home.resolve("1"))).isFalse();
+        assertThat(repo.getLatestVersion(home)).isEqualTo(0);
+    }
+
+    @Test
+    public void pointerFilesAreMigratedToHeader() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = Files.createDirectories(dir.resolve(".gvt"));
+        Files.createDirectories(home.resolve("0"));
+        Files.writeString(home.resolve("0").resolve(".gvt.message"), "GVT initialized.");
+        Files.writeString(home.resolve(".gvt.latest"), "0");
+        Files.writeString(home.resolve(".gvt.active"), "0");
+
+        assertThat(repo.getLatestVersion(home)).isEqualTo(0);
+        assertThat(repo.getHeader(home).getVersionCount()).isEqualTo(1);
+        assertThat(Files.exists(home.resolve(".gvt.latest"))).isFalse();
+        assertThat(Files.exists(home.resolve(".gvt.active"))).isFalse();
+    }
+
+    @Test
+    public void legacyVersionFoldersGetManifests() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = Files.createDirectories(dir.resolve(".gvt"));
+        Files.createDirectories(home.resolve("0"));
+        Files.writeString(home.resolve("0").resolve(".gvt.message"), "GVT initialized.");
+        Files.createDirectories(home.resolve("1"));
+        Files.writeString(home.resolve("1").resolve(".gvt.message"), "File added successfully. File: a.txt");
+        Files.writeString(home.resolve("1").resolve("a.txt"), "content");
+        Files.writeString(home.resolve(".gvt.latest"), "1");
+        Files.writeString(home.resolve(".gvt.active"), "1");
+
+        Map<String, String> manifest = repo.readManifest(home, 1);
+
+        assertThat(manifest.keySet()).isEqualTo(Set.of("a.txt"));
+        assertThat(Files.exists(home.resolve("1").resolve(".gvt.manifest"))).isTrue();
+        Path restored = dir.resolve("restored.txt");
+        repo.getObjects(home).restore(manifest.get("a.txt"), restored);
+        assertThat(Files.readString(restored)).isEqualTo("content");
+        assertThat(repo.readManifest(home, 0)).isEmpty();
+    }
+
+    @Test
+    public void concurrentWritersGetDistinctVersions() throws Exception {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> commits = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String name = "f" + i + ".txt";
+                commits.add(writers.submit(() -> {
+                    try (Gvt.FileRepository.WriteLock ignored = repo.lockForWriting(home)) {
+                        int latest = repo.getLatestVersion(home);
+                        Map<String, String> manifest = repo.readManifest(home, latest);
+                        manifest.put(name, "abc");
+                        repo.finalizeVersion(home, repo.createNewVersion(home, latest + 1, manifest), name, latest + 1,
+                                Map.of(name, FileHistory.Action.ADDED));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> commit : commits) commit.get();
+        } finally {
+            writers.shutdown();
+        }
+
+        assertThat(repo.getLatestVersion(home)).isEqualTo(16);
+        assertThat(repo.readManifest(home, 16).size()).isEqualTo(16);
+    }
+
+    @Test
+    public void tryLockDoesNotWaitForAnotherWriter() throws Exception {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try (Gvt.FileRepository.WriteLock ignored = repo.lockForChecking(home)) {
+            assertThat(other.submit(() -> repo.tryLockForChecking(home)).get()).isNull();
+        } finally {
+            other.shutdown();
+        }
+        try (Gvt.FileRepository.WriteLock lock = repo.tryLockForChecking(home)) {
+            assertThat(lock).isNotNull();
+        }
+    }
+
+    @Test
+    public void prunedFoldersAreFoundByListing() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        for (int v = 1; v <= 3; v++)
+            repo.finalizeVersion(home, repo.createNewVersion(home, v, Map.of()), "Version " + v, v, Map.of());
+        BitSet pruned = new BitSet();
+        pruned.set(1);
+        pruned.set(2);
+        repo.deleteVersionFolder(home, 1);
+
+        assertThat(repo.prunedFolders(home, pruned)).isEqualTo(List.of(2));
+        assertThat(repo.completeLogs(home, 1)).isTrue();
+    }
+
+    @Test
+    public void readsFilesBelowDirectory() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        Map<String, String> manifest = Map.of("a.txt", "aa", "dir/b.txt", "bb", "dir/sub/c.txt", "cc");
+        repo.finalizeVersion(home, repo.createNewVersion(home, 1, manifest), "Files added.", 1, Map.of());
+
+        assertThat(repo.readFiles(home, 1, "dir")).isEqualTo(Map.of("dir/b.txt", "bb", "dir/sub/c.txt", "cc"));
+        assertThat(repo.readFiles(home, 1, "dir/sub/c.txt")).isEqualTo(Map.of("dir/sub/c.txt", "cc"));
+        assertThat(repo.readFiles(home, 1, "missing")).isEmpty();
+        assertThat(repo.readFileHash(home, 1, "dir/b.txt")).isEqualTo("bb");
+        assertThat(repo.readFileHash(home, 1, "dir")).isNull();
+    }
+
+    @Test
+    public void copySnapshotLinksUnchangedFiles() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        Properties config = repo.readConfig(home);
+        repo.setSnapshotMode(config, Gvt.FileRepository.SnapshotMode.COPY);
+        repo.writeConfig(home, config);
+        ObjectStore objects = repo.getObjects(home);
+        Map<String, String> manifest = new TreeMap<>(Map.of(
+                "a.txt", objects.store("a".getBytes()), "b.txt", objects.store("b".getBytes())));
+        repo.finalizeVersion(home, repo.createNewVersion(home, 1, manifest), "Files added.", 1, Map.of());
+        manifest.put("b.txt", objects.store("changed".getBytes()));
+
+        repo.finalizeVersion(home, repo.createNewVersion(home, 2, manifest), "File committed.", 2, Map.of());
+
+        assertThat(Files.isSameFile(home.resolve("1/a.txt"), home.resolve("2/a.txt"))).isTrue();
+        assertThat(Files.isSameFile(home.resolve("1/b.txt"), home.resolve("2/b.txt"))).isFalse();
+        assertThat(Files.readString(home.resolve("2/b.txt"))).isEqualTo("changed");
+        assertThat(repo.snapshotCopies(home).get("2/b.txt")).isEqualTo(manifest.get("b.txt"));
+        assertThat(repo.snapshotCopies(home).size()).isEqualTo(4);
+    }
+
+    @Test
+    public void sparsePatternsCoverDirectories() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        assertThat(repo.readSparsePatterns(home)).isNull();
+        Files.writeString(home.resolve(".gvt.sparse"), "# configs only\n\nconfig\n*.md\n");
+
+        Predicate<String> sparse = repo.readSparsePatterns(home);
+
+        assertThat(sparse.test("config/app/settings.properties")).isTrue();
+        assertThat(sparse.test("README.md")).isTrue();
+        assertThat(sparse.test("docs/guide.md")).isFalse();
+        assertThat(sparse.test("src/App.java")).isFalse();
+    }
+
+    @Test
+    public void checkReportsLeftoversAndMissingObjects() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = initialized(repo);
+        repo.finalizeVersion(home, repo.createNewVersion(home, 1, Map.of("a.txt", "abc")), "Second version", 1, Map.of());
+        assertThat(repo.check(home)).isEqualTo(List.of("object abc: missing"));
+        Files.createDirectories(home.resolve("tmp").resolve("staged"));
+        Files.createDirectories(home.resolve("2"));
+
+        assertThat(repo.check(home)).containsExactly(
+                "leftover staged version: tmp/staged", "version 2: half-written", "object abc: missing");
+    }
+
+    private Path initialized(Gvt.FileRepository repo) throws IOException {
+        Path home = Files.createDirectories(dir.resolve(".gvt"));
+        repo.finalizeVersion(home, repo.createNewVersion(home, 0, Map.of()), "GVT initialized.", 0, Map.of());
+        return home;
+    }
+}
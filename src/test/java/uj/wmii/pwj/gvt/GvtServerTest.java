@@ -0,0 +1,135 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GvtServerTest {
+
+    private static final String FILE = "server-a.txt";
+    private static final String STDIN_FILE = "server-b.txt";
+
+    private static Path socketDir;
+    private static GvtServer server;
+
+    private record Result(int code, byte[] out) {
+    }
+
+    private static class RecordingExitHandler extends ExitHandler {
+        private int code;
+
+        @Override
+        void exitOperation(int code) {
+            this.code = code;
+            throw new GvtServer.ExitSignal(code);
+        }
+    }
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        byte[] content = new byte[300 * 1024];
+        new Random(42).nextBytes(content);
+        Files.write(Path.of(FILE), content);
+        runLocally("init");
+        runLocally("add", FILE);
+
+        socketDir = Files.createTempDirectory("gvt-server");
+        server = new GvtServer(socketDir.resolve("gvt.sock"));
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        while (!server.isRunning()) Thread.sleep(10);
+    }
+
+    @AfterAll
+    static void cleanUp() throws IOException {
+        for (Path root : new Path[] {Path.of(".gvt"), socketDir}) {
+            try (Stream<Path> files = Files.walk(root)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+            }
+        }
+        Files.deleteIfExists(Path.of(FILE));
+        Files.deleteIfExists(Path.of(STDIN_FILE));
+    }
+
+    @Test
+    public void forwardedCommandsMatchLocalRuns() throws IOException {
+        assertSameAsLocal("history");
+        assertSameAsLocal("version", "1");
+        assertSameAsLocal("show", "1:" + FILE);
+        // longer than one frame
+        assertThat(forward(InputStream.nullInputStream(), "show", "1:" + FILE).out().length).isEqualTo(300 * 1024);
+    }
+
+    @Test
+    public void forwardedErrorKeepsExitCode() throws IOException {
+        Result forwarded = forward(InputStream.nullInputStream(), "checkout", "99");
+
+        assertThat(forwarded.code()).isEqualTo(60);
+        assertSameAsLocal("checkout", "99");
+    }
+
+    @Test
+    public void forwardsStandardInputForDash() throws IOException {
+        Files.writeString(Path.of(STDIN_FILE), "from stdin");
+        InputStream stdin = new ByteArrayInputStream((STDIN_FILE + "\n").getBytes(StandardCharsets.UTF_8));
+
+        Result forwarded = forward(stdin, "add", "-");
+
+        assertThat(forwarded.code()).isEqualTo(0);
+        assertThat(new String(forwarded.out(), StandardCharsets.UTF_8))
+                .isEqualToIgnoringNewLines("File added successfully. File: " + STDIN_FILE);
+        assertThat(new String(runLocally("show", "2:" + STDIN_FILE).out(), StandardCharsets.UTF_8)).contains("from stdin");
+    }
+
+    private static void assertSameAsLocal(String... args) throws IOException {
+        Result local = runLocally(args);
+        Result forwarded = forward(InputStream.nullInputStream(), args);
+
+        assertThat(forwarded.code()).isEqualTo(local.code());
+        assertThat(forwarded.out()).isEqualTo(local.out());
+    }
+
+    private static Result forward(InputStream stdin, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Integer code = server.forward(args, stdin, out, OutputStream.nullOutputStream());
+        assertThat(code).isNotNull();
+        return new Result(code, out.toByteArray());
+    }
+
+    private static Result runLocally(String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordingExitHandler exitHandler = new RecordingExitHandler();
+        PrintStream systemOut = System.out;
+        System.setOut(new PrintStream(out, true));
+        try {
+            new Gvt(exitHandler).mainInternal(args);
+        } catch (GvtServer.ExitSignal signal) {
+            // the command ended through the exit handler
+        } finally {
+            System.setOut(systemOut);
+        }
+        return new Result(exitHandler.code, out.toByteArray());
+    }
+}
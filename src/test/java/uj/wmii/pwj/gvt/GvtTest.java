@@ -407,4 +407,50 @@ public class GvtTest {
         }
     }
 
+    @Test
+    @Order(38)
+    public void addTrackedFileThroughDotPath() {
+        Gvt gvt = new Gvt(eh);
+        gvt.mainInternal("add", "./b.txt");
+        verify(eh, times(1)).exit(0, "File already added. File: b.txt");
+    }
+
+    @Test
+    @Order(39)
+    public void commitFileThroughParentPath() {
+        try {
+            Files.writeString(Path.of("b.txt"), "Ala ma kota\nPo raz trzeci!");
+        } catch (IOException e) {
+            fail("Cannot modify file b.txt", e);
+        }
+        Gvt gvt = new Gvt(eh);
+        gvt.mainInternal("commit", "dir/../b.txt");
+        verify(eh, times(1)).exit(0, "File committed successfully. File: b.txt");
+    }
+
+    @Test
+    @Order(40)
+    public void detachFileThroughDotPath() {
+        Gvt gvt = new Gvt(eh);
+        gvt.mainInternal("detach", "./c.txt");
+        verify(eh, times(1)).exit(0, "File detached successfully. File: ./c.txt");
+        gvt.mainInternal("detach", "c.txt");
+        verify(eh, times(1)).exit(0, "File is not added to gvt. File: c.txt");
+    }
+
+    @Test
+    @Order(41)
+    public void commitUnchangedFileAddsNoRevision() {
+        Gvt gvt = new Gvt(eh);
+        gvt.mainInternal("commit", "b.txt", "-m", "Nothing new");
+        verify(eh, times(1)).exit(0, "File committed successfully. File: b.txt");
+        gvt.mainInternal("log", "b.txt");
+        verify(eh, times(1)).exit(0, "8: committed: File committed successfully. File: b.txt\n"
+                + "7: committed: Again modified b.txt\n"
+                + "6: committed: File committed successfully. File: b.txt\n"
+                + "5: added: File added successfully. File: b.txt\n"
+                + "4: detached: File detached successfully. File: b.txt\n"
+                + "2: added: File added successfully. File: b.txt\n");
+    }
+
 }
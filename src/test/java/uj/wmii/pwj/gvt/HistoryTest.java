@@ -0,0 +1,114 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistoryTest {
+
+    // more than one batch of the history command
+    private static final int LATEST = 1100;
+
+    private static class RecordingExitHandler extends ExitHandler {
+        private int code;
+
+        @Override
+        void exitOperation(int code) {
+            this.code = code;
+            throw new GvtServer.ExitSignal(code);
+        }
+    }
+
+    /**
+     * Version v is "Version v", except 5 and 1095, which are "Special version v"; a.txt is added by
+     * version 1 and committed by every hundredth version.
+     */
+    @BeforeAll
+    static void createRepository() throws IOException {
+        Gvt.FileRepository repo = new Gvt.FileRepository(new ExitHandler());
+        Path home = Files.createDirectories(Path.of(".gvt").toAbsolutePath());
+        repo.finalizeVersion(home, repo.createNewVersion(home, 0, Map.of()), "GVT initialized.", 0, Map.of());
+        for (int v = 1; v <= LATEST; v++) {
+            String message = (v == 5 || v == 1095 ? "Special version " : "Version ") + v;
+            Map<String, FileHistory.Action> changes = v == 1 ? Map.of("a.txt", FileHistory.Action.ADDED)
+                    : v % 100 == 0 ? Map.of("a.txt", FileHistory.Action.COMMITTED) : Map.of();
+            repo.finalizeVersion(home, repo.createNewVersion(home, v, Map.of("a.txt", "aa" + v / 100)), message, v, changes);
+        }
+    }
+
+    @AfterAll
+    static void cleanUp() throws IOException {
+        try (Stream<Path> files = Files.walk(Path.of(".gvt"))) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    @Test
+    public void grepFindsMatchesInEveryBatch() {
+        assertThat(history("-grep", "Special")).isEqualTo(List.of("1095: Special version 1095", "5: Special version 5"));
+    }
+
+    @Test
+    public void fileListsVersionsThatChangedIt() {
+        assertThat(history("-file", "a.txt", "-last", "3")).isEqualTo(List.of("1100: Version 1100", "1000: Version 1000", "900: Version 900"));
+        assertThat(history("-file", "a.txt", "-since", "1", "-until", "250"))
+                .isEqualTo(List.of("200: Version 200", "100: Version 100", "1: Version 1"));
+    }
+
+    @Test
+    public void sinceAndUntilSpanBatches() {
+        List<String> lines = history("-since", "50", "-until", "1099");
+
+        assertThat(lines.size()).isEqualTo(1050);
+        assertThat(lines.get(0)).isEqualTo("1099: Version 1099");
+        assertThat(lines.get(1023)).isEqualTo("76: Version 76");
+        assertThat(lines.get(1024)).isEqualTo("75: Version 75");
+        assertThat(lines.get(1049)).isEqualTo("50: Version 50");
+    }
+
+    @Test
+    public void badSinceAndUntilAreIgnored() {
+        assertThat(history("-since", "x", "-until", "1099", "-last", "1")).isEqualTo(List.of("1099: Version 1099"));
+        assertThat(history("-since", "1099", "-until", "y")).isEqualTo(List.of("1100: Version 1100", "1099: Version 1099"));
+    }
+
+    @Test
+    public void lastStopsInTheSecondBatch() {
+        List<String> lines = history("-last", "1030");
+
+        assertThat(lines.size()).isEqualTo(1030);
+        assertThat(lines.get(1029)).isEqualTo("71: Version 71");
+    }
+
+    private static List<String> history(String... options) {
+        String[] args = new String[options.length + 1];
+        args[0] = "history";
+        System.arraycopy(options, 0, args, 1, options.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordingExitHandler exitHandler = new RecordingExitHandler();
+        PrintStream systemOut = System.out;
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            new Gvt(exitHandler).mainInternal(args);
+        } catch (GvtServer.ExitSignal signal) {
+            // the command ended through the exit handler
+        } finally {
+            System.setOut(systemOut);
+        }
+        assertThat(exitHandler.code).isEqualTo(0);
+        return out.toString(StandardCharsets.UTF_8).lines().filter(line -> !line.isEmpty()).toList();
+    }
+}
@@ -0,0 +1,70 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LineDiffTest {
+
+    @Test
+    public void reportsChangedAndAppendedLines() throws IOException {
+        String diff = diff("id,name\n1,a\n2,b\n", "id,name\n1,a\n2,B\n3,c\n");
+
+        assertThat(diff).isEqualTo("@@ -3 +3,2 @@\n-2,b\n+2,B\n+3,c\n");
+    }
+
+    @Test
+    public void identicalTextHasNoHunks() throws IOException {
+        assertThat(diff("a\nb\n", "a\nb\n")).isEqualTo("");
+    }
+
+    @Test
+    public void hunksRebuildTextAcrossWindows() throws IOException {
+        Random random = new Random(42);
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < 3 * LineDiff.WINDOW; i++) before.add("row " + i);
+        List<String> after = new ArrayList<>(before);
+        for (int i = 0; i < 50; i++) after.set(random.nextInt(after.size()), "changed " + i);
+        for (int i = 0; i < LineDiff.WINDOW + 10; i++) after.add(1000, "inserted " + i);
+        after.subList(5000, 5100).clear();
+        String oldText = String.join("\n", before) + "\n";
+        String newText = String.join("\n", after) + "\n";
+
+        assertThat(apply(before, diff(oldText, newText))).isEqualTo(after);
+    }
+
+    private static String diff(String a, String b) throws IOException {
+        StringWriter out = new StringWriter();
+        LineDiff.diff(new BufferedReader(new StringReader(a)), new BufferedReader(new StringReader(b)), out);
+        return out.toString();
+    }
+
+    // applies hunks without context lines, which never overlap and come in order
+    private static List<String> apply(List<String> lines, String diff) {
+        List<String> result = new ArrayList<>();
+        int next = 0;
+        for (String line : diff.split("\n")) {
+            if (line.startsWith("@@")) {
+                String range = line.split(" ")[1].substring(1);
+                int start = Integer.parseInt(range.split(",")[0]);
+                int count = range.contains(",") ? Integer.parseInt(range.split(",")[1]) : 1;
+                int copyTo = count == 0 ? start : start - 1;
+                while (next < copyTo) result.add(lines.get(next++));
+            } else if (line.startsWith("-")) {
+                next++;
+            } else if (line.startsWith("+")) {
+                result.add(line.substring(1));
+            }
+        }
+        while (next < lines.size()) result.add(lines.get(next++));
+        return result;
+    }
+}
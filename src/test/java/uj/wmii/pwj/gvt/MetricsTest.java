@@ -0,0 +1,81 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void endCommand() {
+        Metrics.end();
+    }
+
+    @Test
+    public void storeAndRestoreAreCounted() throws IOException {
+        Path file = dir.resolve("a.txt");
+        Files.writeString(file, "content");
+        ObjectStore objects = new ObjectStore(dir.resolve("objects"));
+
+        Metrics.begin("test", null);
+        String hash = objects.store(file);
+        objects.restore(hash, dir.resolve("b.txt"));
+
+        assertThat(Metrics.get(Metrics.Counter.FILES_READ)).isEqualTo(1);
+        assertThat(Metrics.get(Metrics.Counter.BYTES_HASHED)).isEqualTo(7);
+        assertThat(Metrics.get(Metrics.Counter.FILES_WRITTEN)).isEqualTo(1);
+        assertThat(Metrics.get(Metrics.Counter.FILES_COPIED)).isEqualTo(1);
+        assertThat(Metrics.get(Metrics.Counter.BYTES_COPIED)).isEqualTo(7);
+    }
+
+    @Test
+    public void beginClearsThePreviousCommand() throws IOException {
+        Metrics.begin("first", null);
+        Metrics.synced();
+        try (InputStream in = Metrics.countReads(InputStream.nullInputStream())) {
+            in.readAllBytes();
+        }
+        Metrics.end();
+
+        Metrics.begin("second", null);
+        assertThat(Metrics.get(Metrics.Counter.FSYNCS)).isZero();
+        assertThat(Metrics.get(Metrics.Counter.FILES_READ)).isZero();
+    }
+
+    @Test
+    public void reportListsPhasesAndCountersOnce() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Metrics.begin("commit", new PrintStream(err, true));
+        try (Metrics.Phase ignored = Metrics.phase("store")) {
+            Metrics.fileRead(10);
+        }
+        try (Metrics.Phase ignored = Metrics.phase("manifest")) {
+            Metrics.metadataRead();
+        }
+        try (Metrics.Phase ignored = Metrics.phase("manifest")) {
+            Metrics.metadataRead();
+        }
+        Metrics.end();
+        Metrics.end();
+
+        String report = err.toString(StandardCharsets.UTF_8);
+        assertThat(report).startsWith("command commit: ");
+        assertThat(report).contains("phase store: ", "phase manifest: ", " (2 times)");
+        assertThat(report.indexOf("phase store")).isLessThan(report.indexOf("phase manifest"));
+        assertThat(report).contains("files read: 1\n", "bytes read: 10\n", "metadata reads: 2\n");
+        assertThat(report.indexOf("command commit")).isEqualTo(report.lastIndexOf("command commit"));
+    }
+}
@@ -0,0 +1,219 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ObjectStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void identicalContentIsStoredOnce() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        Path a = Files.writeString(dir.resolve("a.txt"), "same content");
+        Path b = Files.writeString(dir.resolve("b.txt"), "same content");
+
+        String hashA = store.store(a);
+        String hashB = store.store(b);
+
+        assertThat(hashA).isEqualTo(hashB);
+        try (var shards = Files.list(store.getRoot())) {
+            assertThat(shards.filter(Files::isDirectory).count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void restoreWritesStoredContent() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        Path file = Files.writeString(dir.resolve("a.txt"), "Ala ma kota");
+        String hash = store.store(file);
+        Files.writeString(file, "changed");
+
+        store.restore(hash, file);
+
+        assertThat(Files.readString(file)).isEqualTo("Ala ma kota");
+    }
+
+    @Test
+    public void openingMissingObjectFails() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        boolean missing = false;
+
+        try (InputStream ignored = store.open("ab" + "0".repeat(62))) {
+            // not reached
+        } catch (NoSuchFileException e) {
+            missing = true;
+        }
+
+        assertThat(missing).isTrue();
+    }
+
+    @Test
+    public void smallChangeIsStoredAsDelta() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        String content = "id,name\n" + "1,row\n".repeat(2000);
+        Path file = Files.writeString(dir.resolve("test.csv"), content);
+        String base = store.store(file);
+        Files.writeString(file, content + "2,new row\n");
+
+        String hash = store.store(file, base);
+
+        assertThat(store.isStoredWhole(hash)).isFalse();
+        assertThat(new String(store.read(hash))).isEqualTo(content + "2,new row\n");
+    }
+
+    @Test
+    public void deltaChainIsCutByKeyframe() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        String content = "line\n".repeat(2000);
+        Path file = Files.writeString(dir.resolve("log.txt"), content);
+        String hash = store.store(file);
+        int whole = 0;
+        for (int i = 0; i < 40; i++) {
+            content += "entry " + i + "\n";
+            Files.writeString(file, content);
+            hash = store.store(file, hash);
+            if (store.isStoredWhole(hash)) whole++;
+        }
+
+        assertThat(whole).isEqualTo(2);
+        assertThat(new String(store.read(hash))).isEqualTo(content);
+    }
+
+    @Test
+    public void matchesOnlyFilesHoldingTheRevision() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        Path file = Files.writeString(dir.resolve("a.txt"), "Ala ma kota");
+        String hash = store.store(file);
+
+        assertThat(store.matches(hash, file)).isTrue();
+        Files.writeString(file, "Ala ma psa!");
+        assertThat(store.matches(hash, file)).isFalse();
+        assertThat(store.matches(hash, dir.resolve("missing.txt"))).isFalse();
+    }
+
+    @Test
+    public void compressedObjectsRestoreAndKeepTheirSize() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"), Codec.BuiltIn.DEFLATE);
+        String content = "id,name,value\n" + "1,row,42\n".repeat(5000);
+        Path file = Files.writeString(dir.resolve("test.csv"), content);
+
+        String hash = store.store(file);
+        Files.delete(file);
+        store.restore(hash, file);
+
+        assertThat(store.isStoredWhole(hash)).isFalse();
+        assertThat(store.size(hash)).isEqualTo(content.length());
+        assertThat(Files.readString(file)).isEqualTo(content);
+    }
+
+    @Test
+    public void plainObjectsStayReadableAfterEnablingCompression() throws IOException {
+        Path file = Files.writeString(dir.resolve("a.txt"), "plain content");
+        String hash = new ObjectStore(dir.resolve("objects")).store(file);
+
+        ObjectStore compressing = new ObjectStore(dir.resolve("objects"), Codec.BuiltIn.DEFLATE_FAST);
+
+        assertThat(compressing.contains(hash)).isTrue();
+        assertThat(new String(compressing.read(hash))).isEqualTo("plain content");
+    }
+
+    @Test
+    public void largeFilesAreChunkedAndRestored() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"), Codec.BuiltIn.DEFLATE_FAST);
+        Path file = Files.write(dir.resolve("large.bin"), randomBytes(20 * 1024 * 1024));
+        String hash = store.store(file);
+        Path restored = dir.resolve("restored.bin");
+
+        store.restore(hash, restored);
+
+        assertThat(hash).isEqualTo(ObjectStore.hash(file));
+        assertThat(store.size(hash)).isEqualTo(Files.size(file));
+        assertThat(Files.mismatch(file, restored)).isEqualTo(-1L);
+        assertThat(store.matches(hash, restored)).isTrue();
+    }
+
+    @Test
+    public void changeInLargeFileStoresOnlyAffectedChunks() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        byte[] content = randomBytes(40 * 1024 * 1024);
+        Path file = Files.write(dir.resolve("large.bin"), content);
+        store.store(file);
+        long before = storedBytes(store);
+        content[content.length / 2] ^= 1;
+        Files.write(file, content);
+
+        store.store(file);
+
+        assertThat(storedBytes(store) - before).isLessThan(3L * Chunker.MAX_SIZE);
+    }
+
+    @Test
+    public void sweepDeletesOnlyUnreachableObjects() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        String content = "id,name\n" + "1,row\n".repeat(2000);
+        Path file = Files.writeString(dir.resolve("test.csv"), content);
+        String base = store.store(file);
+        Files.writeString(file, content + "2,new row\n");
+        String hash = store.store(file, base);
+        String garbage = store.store(Files.writeString(dir.resolve("other.txt"), "garbage"));
+        Set<String> reachable = Set.of(hash, base);
+
+        assertThat(store.references(hash)).containsExactly(base);
+        int removed = 0;
+        for (String shard : store.shards()) removed += store.sweep(shard, reachable::contains).objects();
+
+        assertThat(removed).isEqualTo(1);
+        assertThat(store.contains(garbage)).isFalse();
+        assertThat(new String(store.read(hash))).isEqualTo(content + "2,new row\n");
+    }
+
+    @Test
+    public void verifyDetectsDamagedObjects() throws IOException {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"), Codec.BuiltIn.DEFLATE);
+        String good = store.store(Files.writeString(dir.resolve("a.txt"), "Ala ma kota"));
+        String bad = store.store(Files.writeString(dir.resolve("b.txt"), "Ola ma psa"));
+        Path damaged = store.getRoot().resolve(bad.substring(0, 2)).resolve(bad.substring(2) + ".z");
+        byte[] bytes = Files.readAllBytes(damaged);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(damaged, bytes);
+
+        assertThat(new TreeSet<>(store.list())).isEqualTo(new TreeSet<>(Set.of(good, bad)));
+        assertThat(store.verify(good)).isEqualTo(11);
+        assertThat(isDamaged(store, bad)).isTrue();
+    }
+
+    // a damaged stream may fail to decode instead of decoding to other content
+    private static boolean isDamaged(ObjectStore store, String hash) {
+        try {
+            return store.verify(hash) < 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long storedBytes(ObjectStore store) throws IOException {
+        try (Stream<Path> files = Files.walk(store.getRoot())) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
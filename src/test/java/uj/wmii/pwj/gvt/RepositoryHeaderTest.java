@@ -0,0 +1,66 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+public class RepositoryHeaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void publishMovesPointersAndCounters() throws IOException {
+        Path file = dir.resolve(".gvt.head");
+        RepositoryHeader.create(file, 0, 0, 1, 0, 0);
+        RepositoryHeader header = RepositoryHeader.open(file, true);
+
+        header.publish(1, 3);
+        header.addStoredBytes(100);
+        header.setActive(0);
+
+        assertThat(header.getLatest()).isEqualTo(1);
+        assertThat(header.getActive()).isEqualTo(0);
+        assertThat(header.getVersionCount()).isEqualTo(2);
+        assertThat(header.getFileCount()).isEqualTo(3L);
+        assertThat(header.getStoredBytes()).isEqualTo(100L);
+    }
+
+    @Test
+    public void updatesAreVisibleThroughAnotherMapping() throws IOException {
+        Path file = dir.resolve(".gvt.head");
+        RepositoryHeader.create(file, 0, 0, 1, 0, 0);
+        RepositoryHeader writer = RepositoryHeader.open(file, true);
+        RepositoryHeader reader = RepositoryHeader.open(file, false);
+
+        writer.publish(1, 1);
+
+        assertThat(reader.getLatest()).isEqualTo(1);
+    }
+
+    @Test
+    public void foreignFileIsRejected() throws IOException {
+        Path file = Files.writeString(dir.resolve(".gvt.head"), "0".repeat(RepositoryHeader.SIZE));
+
+        assertThat(catchThrowableOfType(() -> RepositoryHeader.open(file, false), IOException.class)).isNotNull();
+    }
+
+    @Test
+    public void readOnlyFileOpensForReading() throws IOException {
+        Path file = dir.resolve(".gvt.head");
+        RepositoryHeader.create(file, 4, 3, 5, 2, 10);
+        assertThat(file.toFile().setWritable(false)).isTrue();
+
+        RepositoryHeader header = RepositoryHeader.open(file, false);
+
+        assertThat(header.isWritable()).isFalse();
+        assertThat(header.getLatest()).isEqualTo(4);
+        assertThat(header.getActive()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,51 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetentionTest {
+
+    private static final long[] TIMES = {
+            time(1, 10, 9), time(1, 10, 18), time(1, 20, 9),
+            time(2, 3, 9), time(2, 3, 12), time(2, 3, 15)};
+
+    @Test
+    public void withoutRulesEverythingIsKept() {
+        BitSet keep = new Retention(0, 0, 0, false).keep(TIMES, 5, List.of(), ZoneOffset.UTC);
+
+        assertThat(keep.cardinality()).isEqualTo(6);
+    }
+
+    @Test
+    public void lastVersionsAndLatestAreKept() {
+        BitSet keep = new Retention(2, 0, 0, false).keep(TIMES, 0, List.of(), ZoneOffset.UTC);
+
+        assertThat(keep.toString()).isEqualTo("{0, 4, 5}");
+    }
+
+    @Test
+    public void newestVersionOfEachDayAndMonthIsKept() {
+        assertThat(new Retention(0, 3, 0, false).keep(TIMES, 5, List.of(), ZoneOffset.UTC).toString())
+                .isEqualTo("{1, 2, 5}");
+        assertThat(new Retention(0, 0, 2, false).keep(TIMES, 5, List.of(), ZoneOffset.UTC).toString())
+                .isEqualTo("{2, 5}");
+    }
+
+    @Test
+    public void taggedVersionsAreAlwaysKept() {
+        assertThat(new Retention(0, 0, 0, true).keep(TIMES, 5, List.of(1), ZoneOffset.UTC).toString())
+                .isEqualTo("{1, 5}");
+        assertThat(new Retention(1, 0, 0, false).keep(TIMES, 5, List.of(3), ZoneOffset.UTC).toString())
+                .isEqualTo("{3, 5}");
+    }
+
+    private static long time(int month, int day, int hour) {
+        return LocalDateTime.of(2025, month, day, hour, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
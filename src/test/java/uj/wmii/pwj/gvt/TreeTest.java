@@ -0,0 +1,78 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void flattensBackToManifest() throws IOException {
+        ObjectStore objects = new ObjectStore(dir.resolve("objects"));
+        Map<String, String> manifest = new TreeMap<>(Map.of(
+                "a.txt", "aa", "src/main/App.java", "bb", "src/main/Util.java", "cc", "src/test/AppTest.java", "dd"));
+
+        String root = Tree.write(objects, manifest);
+
+        assertThat(Tree.read(objects, root)).isEqualTo(manifest);
+    }
+
+    @Test
+    public void fileAndDirectoryWithTheSameNameConflict() {
+        assertThat(Tree.conflict(List.of("a", "a/b"))).isEqualTo("a");
+        assertThat(Tree.conflict(List.of("a/b/c", "a/b"))).isEqualTo("a/b");
+        assertThat(Tree.conflict(List.of("a", "a-b", "ab/c"))).isNull();
+    }
+
+    @Test
+    public void unchangedSubtreesKeepTheirHash() throws IOException {
+        ObjectStore objects = new ObjectStore(dir.resolve("objects"));
+        Map<String, String> manifest = new TreeMap<>(Map.of("docs/a.md", "aa", "src/App.java", "bb"));
+        String oldRoot = Tree.write(objects, manifest);
+        manifest.put("src/App.java", "cc");
+
+        String newRoot = Tree.write(objects, manifest);
+
+        assertThat(Tree.entries(objects, newRoot).get("docs")).isEqualTo(Tree.entries(objects, oldRoot).get("docs"));
+        assertThat(Tree.entries(objects, newRoot).get("src")).isNotEqualTo(Tree.entries(objects, oldRoot).get("src"));
+    }
+
+    @Test
+    public void diffDoesNotReadEqualSubtrees() throws IOException {
+        ObjectStore objects = new ObjectStore(dir.resolve("objects"));
+        Map<String, String> manifest = new TreeMap<>(Map.of("docs/a.md", "aa", "src/App.java", "bb"));
+        String oldRoot = Tree.write(objects, manifest);
+        manifest.put("src/App.java", "cc");
+        manifest.put("src/New.java", "dd");
+        String newRoot = Tree.write(objects, manifest);
+        Files.delete(objects.locate(Tree.entries(objects, newRoot).get("docs").hash()));
+
+        Map<String, Tree.Change> changes = Tree.diff(objects, oldRoot, newRoot);
+
+        assertThat(changes).isEqualTo(Map.of(
+                "src/App.java", new Tree.Change("bb", "cc"),
+                "src/New.java", new Tree.Change(null, "dd")));
+    }
+
+    @Test
+    public void findsEntriesAlongPath() throws IOException {
+        ObjectStore objects = new ObjectStore(dir.resolve("objects"));
+        String root = Tree.write(objects, Map.of("a.txt", "aa", "src/main/App.java", "bb"));
+
+        assertThat(Tree.find(objects, root, "src/main/App.java")).isEqualTo(new Tree.Entry("blob", "bb"));
+        assertThat(Tree.find(objects, root, "src/main").isTree()).isTrue();
+        assertThat(Tree.find(objects, root, "src/Other.java")).isNull();
+        assertThat(Tree.find(objects, root, "a.txt/b")).isNull();
+    }
+}
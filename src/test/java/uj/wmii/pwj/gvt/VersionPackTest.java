@@ -0,0 +1,64 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VersionPackTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void readsAppendedVersions() throws IOException {
+        VersionPack pack = new VersionPack(dir);
+        pack.append(new String[] {"GVT initialized.", "Za\u017c\u00f3\u0142\u0107\nsecond line"}, new String[] {"", "abc a.txt\n"});
+        pack.append(new String[] {"third"}, new String[] {"def b.txt\n"});
+
+        assertThat(pack.getPackedCount()).isEqualTo(3);
+        assertThat(pack.readMessage(1)).isEqualTo("Za\u017c\u00f3\u0142\u0107\nsecond line");
+        assertThat(pack.readManifest(1)).isEqualTo("abc a.txt\n");
+        assertThat(pack.readManifest(2)).isEqualTo("def b.txt\n");
+        assertThat(pack.readMessage(3)).isNull();
+    }
+
+    @Test
+    public void readsRecordsPastTwoGigabytes() throws IOException {
+        long offset = 3L * 1024 * 1024 * 1024;
+        byte[] message = "far".getBytes(StandardCharsets.UTF_8);
+        try (FileChannel packChannel = FileChannel.open(dir.resolve("versions.pack"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // sparse up to the record
+            packChannel.write(ByteBuffer.allocate(2 * Integer.BYTES + message.length).putInt(message.length).put(message).putInt(0).flip(), offset);
+        }
+        Files.write(dir.resolve("versions.idx"), ByteBuffer.allocate(Long.BYTES).putLong(offset).array());
+        VersionPack pack = new VersionPack(dir);
+
+        pack.append(new String[] {"farther"}, new String[] {"abc a.txt\n"});
+
+        assertThat(pack.readMessage(0)).isEqualTo("far");
+        assertThat(pack.readManifest(0)).isEqualTo("");
+        assertThat(pack.readMessage(1)).isEqualTo("farther");
+        assertThat(pack.readManifest(1)).isEqualTo("abc a.txt\n");
+    }
+
+    @Test
+    public void discardsInterruptedAppend() throws IOException {
+        VersionPack pack = new VersionPack(dir);
+        pack.append(new String[] {"first"}, new String[] {""});
+        Files.write(dir.resolve("versions.pack"), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+        pack.append(new String[] {"second"}, new String[] {"x y\n"});
+
+        assertThat(pack.readMessage(1)).isEqualTo("second");
+        assertThat(pack.readManifest(1)).isEqualTo("x y\n");
+    }
+}
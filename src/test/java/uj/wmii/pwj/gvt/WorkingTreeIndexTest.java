@@ -0,0 +1,52 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WorkingTreeIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void trustsUntouchedFile() throws IOException {
+        Path file = Files.writeString(dir.resolve("a.txt"), "Ala ma kota");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(60)));
+        WorkingTreeIndex index = WorkingTreeIndex.load(dir.resolve(".gvt.index"));
+        index.update("a.txt", file, "hash-a");
+        index.save();
+
+        assertThat(WorkingTreeIndex.load(dir.resolve(".gvt.index")).cachedHash("a.txt", file)).isEqualTo("hash-a");
+    }
+
+    @Test
+    public void distrustsModifiedFile() throws IOException {
+        Path file = Files.writeString(dir.resolve("a.txt"), "Ala ma kota");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(60)));
+        WorkingTreeIndex index = WorkingTreeIndex.load(dir.resolve(".gvt.index"));
+        index.update("a.txt", file, "hash-a");
+        index.save();
+        Files.writeString(file, "Ala ma psa");
+
+        assertThat(WorkingTreeIndex.load(dir.resolve(".gvt.index")).cachedHash("a.txt", file)).isNull();
+    }
+
+    @Test
+    public void distrustsFileModifiedWithIndexSave() throws IOException {
+        Path file = Files.writeString(dir.resolve("a.txt"), "Ala ma kota");
+        WorkingTreeIndex index = WorkingTreeIndex.load(dir.resolve(".gvt.index"));
+        index.update("a.txt", file, "hash-a");
+        index.save();
+        Files.setLastModifiedTime(dir.resolve(".gvt.index"), Files.getLastModifiedTime(file));
+
+        assertThat(WorkingTreeIndex.load(dir.resolve(".gvt.index")).cachedHash("a.txt", file)).isNull();
+    }
+}